@@ -0,0 +1,73 @@
+package fr.istic.vandv.squeezer.benchmarks;
+
+import fr.istic.vandv.squeezer.Application.AlgorithmInformation;
+import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Compression and decompression speed of every algorithm on every corpus.
+// The megabytes counter gives MB/s, run with -prof gc for the allocation rate.
+// The compression ratio is printed when each trial starts.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AlgorithmBenchmark {
+
+    @Param({"LZW", "HUFFMAN", "RUN_LENGTH"})
+    public String algorithm;
+
+    @Param({"RANDOM", "TEXT", "REPETITIVE", "RUNS", "SPARSE", "ZEROS", "SMALL"})
+    public Corpus corpus;
+
+    private CompressionAlgorithm implementation;
+    private byte[] content;
+    private byte[] compressed;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        // Uncompressed megabytes processed, reported per second
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        implementation = AlgorithmInformation.valueOf(algorithm).getInstance();
+        content = corpus.generate();
+        compressed = compress(content);
+        System.out.printf("%n%s on %s: %d -> %d bytes, ratio %.4f%n", algorithm, corpus, content.length,
+                compressed.length, compressed.length / (double) content.length);
+    }
+
+    @Benchmark
+    public byte[] compress(Throughput throughput) throws IOException {
+        throughput.megabytes += content.length / 1e6;
+        return compress(content);
+    }
+
+    @Benchmark
+    public byte[] decompress(Throughput throughput) throws IOException {
+        throughput.megabytes += content.length / 1e6;
+        ByteArrayOutputStream output = new ByteArrayOutputStream(content.length);
+        implementation.decompress(new ByteArrayInputStream(compressed), output);
+        return output.toByteArray();
+    }
+
+    private byte[] compress(byte[] input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length / 2 + 16);
+        implementation.compress(new ByteArrayInputStream(input), output);
+        return output.toByteArray();
+    }
+}
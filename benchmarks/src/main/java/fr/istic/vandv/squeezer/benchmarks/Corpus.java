@@ -0,0 +1,110 @@
+package fr.istic.vandv.squeezer.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+// Deterministic inputs with the kinds of content the algorithms are expected to face
+public enum Corpus {
+    // Incompressible bytes
+    RANDOM(1 << 20) {
+        @Override
+        byte[] generate(Random random, int size) {
+            byte[] result = new byte[size];
+            random.nextBytes(result);
+            return result;
+        }
+    },
+    // Words drawn from a small vocabulary with a skewed distribution
+    TEXT(1 << 20) {
+        @Override
+        byte[] generate(Random random, int size) {
+            return text(random, size);
+        }
+    },
+    // The same random 4 KiB chunk over and over
+    REPETITIVE(1 << 20) {
+        @Override
+        byte[] generate(Random random, int size) {
+            byte[] chunk = RANDOM.generate(random, 4096);
+            byte[] result = new byte[size];
+            for(int i = 0; i < size; i += chunk.length) {
+                System.arraycopy(chunk, 0, result, i, Math.min(chunk.length, size - i));
+            }
+            return result;
+        }
+    },
+    // Runs of a few bytes to a few thousand bytes of the same value
+    RUNS(1 << 20) {
+        @Override
+        byte[] generate(Random random, int size) {
+            byte[] result = new byte[size];
+            int position = 0;
+            while(position < size) {
+                int length = Math.min(size - position, 1 + random.nextInt(random.nextBoolean()? 8 : 4096));
+                byte value = (byte) random.nextInt(256);
+                for(int i = 0; i < length; i++) {
+                    result[position++] = value;
+                }
+            }
+            return result;
+        }
+    },
+    // Zeros with a random byte every few hundred bytes, as in sparse files and tables
+    SPARSE(1 << 20) {
+        @Override
+        byte[] generate(Random random, int size) {
+            byte[] result = new byte[size];
+            for(int position = random.nextInt(512); position < size; position += 1 + random.nextInt(512)) {
+                result[position] = (byte) (1 + random.nextInt(255));
+            }
+            return result;
+        }
+    },
+    // Nothing but zeros, as in preallocated or wiped files
+    ZEROS(1 << 20) {
+        @Override
+        byte[] generate(Random random, int size) {
+            return new byte[size];
+        }
+    },
+    // A short text file, where per call costs dominate
+    SMALL(512) {
+        @Override
+        byte[] generate(Random random, int size) {
+            return text(random, size);
+        }
+    };
+
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "in", "a", "is", "that", "for", "it", "as", "was", "with",
+            "be", "by", "on", "not", "he", "this", "are", "or", "his", "from", "at", "which",
+            "compression", "algorithm", "squeezer", "dictionary", "block", "stream", "huffman"
+    };
+
+    private final int size;
+
+    Corpus(int size) {
+        this.size = size;
+    }
+
+    public int size() { return size; }
+
+    public byte[] generate() {
+        return generate(new Random(ordinal()), size);
+    }
+
+    abstract byte[] generate(Random random, int size);
+
+    private static byte[] text(Random random, int size) {
+        StringBuilder builder = new StringBuilder(size + 16);
+        while(builder.length() < size) {
+            // Squaring the uniform draw favours the first words, as in natural text
+            double draw = random.nextDouble();
+            builder.append(WORDS[(int) (draw * draw * WORDS.length)]);
+            builder.append(random.nextInt(12) == 0? ".\n" : " ");
+        }
+        byte[] result = new byte[size];
+        System.arraycopy(builder.toString().getBytes(StandardCharsets.US_ASCII), 0, result, 0, size);
+        return result;
+    }
+}
@@ -0,0 +1,103 @@
+package fr.istic.vandv.squeezer.benchmarks;
+
+import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitString;
+import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitStringWriter;
+import fr.istic.vandv.squeezer.algorithms.bytestrings.ByteString;
+import fr.istic.vandv.squeezer.algorithms.bytestrings.TrieDictionary;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Cost of the bit and byte string primitives the algorithms are built on
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrimitivesBenchmark {
+
+    // Length of the strings being built or looked up
+    @Param({"8", "64"})
+    public int length;
+
+    private String text;
+    private BitString code;
+    private BitStringWriter writer;
+    private ByteString pattern;
+    private TrieDictionary dictionary;
+    private ByteString[] entries;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        text = "1011001110001111".repeat(4).substring(0, Math.min(length, 64));
+        code = BitString.parse(text);
+        writer = new BitStringWriter(OutputStream.nullOutputStream());
+        Random random = new Random(length);
+        int[] bytes = new int[length];
+        for(int i = 0; i < length; i++) {
+            bytes[i] = random.nextInt(256);
+        }
+        pattern = new ByteString(bytes);
+        dictionary = new TrieDictionary();
+        entries = new ByteString[1024];
+        for(int i = 0; i < entries.length; i++) {
+            ByteString entry = ByteString.bytestr(random.nextInt(256));
+            for(int j = 1; j < length; j++) {
+                entry = entry.add(random.nextInt(256));
+                if(!dictionary.contains(entry)) dictionary.add(entry);
+            }
+            entries[i] = entry;
+        }
+    }
+
+    @Benchmark
+    public BitString bitStringAppendOne() {
+        BitString result = new BitString();
+        for(int i = 0; i < length; i++) {
+            result = result.appendOne();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public BitString bitStringParse() {
+        return BitString.parse(text);
+    }
+
+    @Benchmark
+    public void bitStringWriterWriteBits() throws IOException {
+        for(int i = 0; i < length; i++) {
+            writer.write((byte) 0xA5, 1 + i % 8);
+        }
+    }
+
+    @Benchmark
+    public void bitStringWriterWriteLong() throws IOException {
+        for(int i = 0; i < length; i++) {
+            writer.write(0x5A5A5A5AL, 1 + i % 24);
+        }
+    }
+
+    @Benchmark
+    public void bitStringWriterWriteBitString() throws IOException {
+        writer.write(code);
+    }
+
+    @Benchmark
+    public ByteString byteStringAdd() {
+        return pattern.add(next++ & 0xFF);
+    }
+
+    @Benchmark
+    public void trieDictionaryIndexOf(Blackhole blackhole) {
+        for(ByteString entry : entries) {
+            blackhole.consume(dictionary.indexOf(entry));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.Application.AlgorithmInformation;
+import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
+import fr.istic.vandv.squeezer.algorithms.CompressionListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Picks the algorithm for AlgorithmInformation.AUTO from a few chunks spread over the content.
+// Long runs go to run length compression, repeated sequences to LZW and skewed byte frequencies
+// to Huffman. Content with none of them is left to run length compression, which stores it
+// almost as is at the highest speed.
+final class AlgorithmSelector {
+
+    static final int SAMPLES = 4;
+    static final int SAMPLE_SIZE = 16 << 10;
+
+    // Shortest run worth a compressed run length block
+    private static final int MIN_RUN = 4;
+    // Sequences of this many bytes are looked up to estimate repetitiveness
+    private static final int SEQUENCE_LENGTH = 4;
+    private static final int HASH_BITS = 14;
+
+    // Share of sequences seen before in the same chunk above which LZW is chosen
+    private static final double REPEATED_THRESHOLD = 0.35;
+    // Huffman must save at least this share of the content
+    private static final double HUFFMAN_THRESHOLD = 0.9;
+
+    private AlgorithmSelector() {}
+
+    static AlgorithmInformation select(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int chunks = size <= SAMPLES * SAMPLE_SIZE? 1 : SAMPLES;
+            ByteBuffer sample = ByteBuffer.allocate((int) Math.min(size, SAMPLES * SAMPLE_SIZE));
+            int[] starts = new int[chunks];
+            for(int i = 0; i < chunks; i++) {
+                starts[i] = sample.position();
+                sample.limit(chunks == 1? sample.capacity() : starts[i] + SAMPLE_SIZE);
+                long position = chunkOffset(i, size);
+                int read;
+                while(sample.hasRemaining() && (read = channel.read(sample, position)) > 0) {
+                    position += read;
+                }
+            }
+            return select(sample.array(), sample.position(), starts);
+        }
+    }
+
+    // Selector of the blocks of a framed container compressed with AlgorithmInformation.AUTO
+    static CompressionAlgorithm select(byte[] content, int length, CompressionListener listener) {
+        long start = System.nanoTime();
+        CompressionAlgorithm algorithm = select(content, length).getInstance();
+        listener.lap(CompressionListener.SELECT, start);
+        return algorithm;
+    }
+
+    static AlgorithmInformation select(byte[] content, int length) {
+        if(length <= SAMPLES * SAMPLE_SIZE) {
+            return select(content, length, new int[] { 0 });
+        }
+        byte[] sample = new byte[SAMPLES * SAMPLE_SIZE];
+        int[] starts = new int[SAMPLES];
+        for(int i = 0; i < SAMPLES; i++) {
+            starts[i] = i * SAMPLE_SIZE;
+            System.arraycopy(content, (int) chunkOffset(i, length), sample, starts[i], SAMPLE_SIZE);
+        }
+        return select(sample, sample.length, starts);
+    }
+
+    // Chunks are spread evenly, the first one starting with the content and the last one ending with it
+    private static long chunkOffset(int chunk, long size) {
+        return (size - SAMPLE_SIZE) * chunk / (SAMPLES - 1);
+    }
+
+    // The sample is made of chunks beginning at the given offsets, repetitions are looked for in each chunk
+    private static AlgorithmInformation select(byte[] sample, int length, int[] starts) {
+        if(length == 0) return AlgorithmInformation.RUN_LENGTH;
+        int[] frequencies = new int[256];
+        long runBytes = 0;
+        long runs = 0;
+        long repeated = 0;
+        long sequences = 0;
+        int[] seen = new int[1 << HASH_BITS];
+        for(int chunk = 0; chunk < starts.length; chunk++) {
+            int from = starts[chunk];
+            int to = chunk + 1 < starts.length? starts[chunk + 1] : length;
+            int position = from;
+            while(position < to) {
+                int run = 1;
+                while(position + run < to && sample[position + run] == sample[position]) run++;
+                if(run >= MIN_RUN) {
+                    runBytes += run;
+                    runs++;
+                }
+                frequencies[sample[position] & 0xFF] += run;
+                position += run;
+            }
+            // Positions are stored plus one, so zero means not seen
+            for(int i = from; i + SEQUENCE_LENGTH <= to; i++) {
+                int sequence = sequence(sample, i);
+                int hash = (sequence * 0x9E3779B1) >>> (32 - HASH_BITS);
+                int previous = seen[hash] - 1;
+                if(previous >= from && sequence(sample, previous) == sequence) repeated++;
+                seen[hash] = i + 1;
+                sequences++;
+            }
+        }
+        double entropy = 0;
+        for(int frequency : frequencies) {
+            if(frequency == 0) continue;
+            double probability = (double) frequency / length;
+            entropy -= probability * Math.log(probability) / Math.log(2);
+        }
+        // A compressed block costs a few bytes, the bytes out of long runs stay as they are
+        double runLengthSize = length - runBytes + 3.0 * runs;
+        // Huffman codes are at least one bit long
+        double huffmanSize = length * Math.max(entropy, 1) / 8;
+        double repetitiveness = sequences == 0? 0 : (double) repeated / sequences;
+
+        if(runLengthSize <= huffmanSize / 2) return AlgorithmInformation.RUN_LENGTH;
+        if(repetitiveness >= REPEATED_THRESHOLD) return AlgorithmInformation.LZW;
+        if(huffmanSize <= HUFFMAN_THRESHOLD * length) return AlgorithmInformation.HUFFMAN;
+        return AlgorithmInformation.RUN_LENGTH;
+    }
+
+    private static int sequence(byte[] sample, int position) {
+        return (sample[position] & 0xFF) | (sample[position + 1] & 0xFF) << 8 | (sample[position + 2] & 0xFF) << 16 | sample[position + 3] << 24;
+    }
+}
@@ -1,18 +1,24 @@
 package fr.istic.vandv.squeezer;
 
 
+import fr.istic.vandv.squeezer.algorithms.AlgorithmRegistry;
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
 import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
-import fr.istic.vandv.squeezer.algorithms.HuffmanEncoding;
-import fr.istic.vandv.squeezer.algorithms.LZWCompression;
-import fr.istic.vandv.squeezer.algorithms.RunLengthCompression;
+import fr.istic.vandv.squeezer.algorithms.CompressionListener;
+import fr.istic.vandv.squeezer.io.ChannelInputStream;
+import fr.istic.vandv.squeezer.io.ChannelOutputStream;
+import fr.istic.vandv.squeezer.io.DiscardingOutputStream;
 import picocli.CommandLine;
 import picocli.CommandLine.*;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.UnaryOperator;
 
 @Command(
         name="squeezer",
@@ -23,7 +29,7 @@ import java.util.Arrays;
 public class Application {
 
 
-    private static final byte[] SQZ_HEADER = { 83, 81, 90 };
+    static final byte[] SQZ_HEADER = { 83, 81, 90 };
 
     public static void main(String[] args) {
         CommandLine cmd = new CommandLine(new Application());
@@ -38,42 +44,111 @@ public class Application {
             @Parameters(description = "File to compress. It must exists and be readable.")
             File input,
             @Parameters(description = "Path where the compressed file should be created. The file should not exist and the location must be writable.")
-            File output) {
+            File output,
+            @Option(names = {"--buffer-size", "-b"}, paramLabel = "BYTES", defaultValue = "" + ChannelInputStream.DEFAULT_BUFFER_SIZE, description = "Size of the I/O buffers. Default: ${DEFAULT-VALUE}")
+            int bufferSize,
+            @Option(names = {"--threads", "-t"}, paramLabel = "THREADS", description = "Compresses independent blocks in parallel with the given number of threads. Implies a framed container.")
+            Integer threads,
+            @Option(names = {"--block-size"}, paramLabel = "BYTES", description = "Size of the independent blocks of a framed container. Implies a framed container. Default: " + FramedContainer.DEFAULT_BLOCK_SIZE)
+            Integer blockSize,
+            @Option(names = {"--index"}, description = "Writes a block index so ranges can be decompressed without reading the whole file. Implies a framed container.")
+            boolean indexed,
+            @Option(names = {"--checksum"}, description = "Stores the CRC32C of each block, verified when it is decompressed or tested. Implies a framed container.")
+            boolean checksums,
+            @Option(names = {"--stats"}, description = "Prints sizes, times of each phase, throughput and allocations once done.")
+            boolean printStats,
+            @Option(names = {"--stats-format"}, paramLabel = "FORMAT", defaultValue = "TEXT", description = "Format of the statistics. Valid values: ${COMPLETION-CANDIDATES}. Default: ${DEFAULT-VALUE}")
+            CompressionStats.Format statsFormat,
+            @Option(names = {"--no-daemon"}, description = "Compresses in this process even if a daemon started with serve is running.")
+            boolean noDaemon) {
+        CompressionStats stats = printStats? new CompressionStats("compress") : null;
+        int result = compressFile(algorithm, input, output, bufferSize, threads, blockSize, indexed, checksums, stats, !noDaemon && stats == null);
+        return report(result, stats, statsFormat);
+    }
 
+    // Files that are not framed are compressed by the running daemon, if any, when forwarding is allowed
+    private int compressFile(AlgorithmInformation algorithm, File input, File output, int bufferSize, Integer threads, Integer blockSize, boolean indexed, boolean checksums, CompressionStats stats, boolean forward) {
+        CompressionListener listener = stats == null? CompressionListener.NONE : stats;
+        long start = System.nanoTime();
+        long allocated = stats == null? -1 : CompressionStats.threadAllocatedBytes();
         try {
 
-            int validation = validateArguments(input, output);
+            int validation = validateFraming(threads, blockSize);
             if(ExitCodes.isError(validation)) {
                 return validation;
             }
 
-            FileOutputStream outputStream = new FileOutputStream(output);
-            outputStream.write(SQZ_HEADER);
-            outputStream.write(algorithm.opcode);
-
-            FileInputStream inputStream = new FileInputStream(input);
-
-            CompressionAlgorithm implementation = algorithm.getInstance();
-
-            implementation.compress(inputStream, outputStream);
-
-            inputStream.close();
+            validation = validateArguments(input, output, bufferSize);
+            if(ExitCodes.isError(validation)) {
+                return validation;
+            }
 
-            outputStream.flush();
-            outputStream.close();
+            try(ChannelOutputStream outputStream = new ChannelOutputStream(output.toPath(), bufferSize);
+                ChannelInputStream inputStream = new ChannelInputStream(input.toPath(), bufferSize)) {
+
+                outputStream.write(SQZ_HEADER);
+
+                if(threads != null || blockSize != null || indexed || checksums) {
+                    outputStream.write(FramedContainer.OPCODE);
+                    FramedContainer container = new FramedContainer(
+                            blockSize == null? FramedContainer.DEFAULT_BLOCK_SIZE : blockSize,
+                            threads == null? Runtime.getRuntime().availableProcessors() : threads);
+                    container.setIndexed(indexed);
+                    container.setChecksums(checksums);
+                    container.setListener(listener);
+                    if(algorithm == AlgorithmInformation.AUTO) {
+                        container.compress(inputStream, outputStream, AlgorithmSelector::select);
+                    }
+                    else {
+                        container.compress(inputStream, outputStream, algorithm.getInstance());
+                    }
+                }
+                else {
+                    if(algorithm == AlgorithmInformation.AUTO) {
+                        long selection = System.nanoTime();
+                        algorithm = AlgorithmSelector.select(input.toPath());
+                        listener.lap(CompressionListener.SELECT, selection);
+                    }
+                    outputStream.write(algorithm.opcode);
+                    if(!forward || !Daemon.forward(Daemon.COMPRESS, algorithm.opcode, inputStream, outputStream)) {
+                        algorithm.getInstance().compress(inputStream, outputStream, listener);
+                    }
+                }
+
+                if(stats != null) {
+                    outputStream.flush();
+                    finish(stats, algorithm.name(), inputStream.getWaitNanos() + outputStream.getWaitNanos(), allocated, input, output, start);
+                }
+            }
 
         } catch (IOException exc) {
             System.err.println("Unexpected I/O exception: " + exc.getMessage());
             return ExitCodes.IO_ERROR;
-        } catch (InstantiationException | InvocationTargetException | NoSuchMethodException | IllegalAccessException exc) {
-            System.err.println("Unexcepted error: " + exc.getMessage());
-            return ExitCodes.SOFTWARE_ERROR;
         }
 
         return ExitCodes.SUCCESS;
     }
 
-    private int validateArguments(File input, File output) throws IOException {
+    private int validateFraming(Integer threads, Integer blockSize) {
+        if (threads != null && threads < 1) {
+            System.err.println("Number of threads must be positive: " + threads);
+            return ExitCodes.USAGE;
+        }
+
+        if (blockSize != null && blockSize < 1) {
+            System.err.println("Block size must be positive: " + blockSize);
+            return ExitCodes.USAGE;
+        }
+
+        return ExitCodes.SUCCESS;
+    }
+
+    private int validateArguments(File input, File output, int bufferSize) throws IOException {
+        if (bufferSize < 1) {
+            System.err.println("Buffer size must be positive: " + bufferSize);
+            return ExitCodes.USAGE;
+        }
+
         if (!input.exists()) {
             System.err.println("Input file does not exist: " + input.getAbsolutePath());
             return ExitCodes.NO_INPUT;
@@ -99,48 +174,354 @@ public class Application {
     }
 
     @Command(name="decompress", aliases = {"dcmp", "dc", "d"}, description = "Decompresses a given previously compressed file.")
-    public int decompress(File input, File output) {
+    public int decompress(
+            @Parameters(description = "Compressed file. It must exists and be readable.")
+            File input,
+            @Parameters(description = "Path where the decompressed file should be created. The file should not exist and the location must be writable.")
+            File output,
+            @Option(names = {"--buffer-size", "-b"}, paramLabel = "BYTES", defaultValue = "" + ChannelInputStream.DEFAULT_BUFFER_SIZE, description = "Size of the I/O buffers. Default: ${DEFAULT-VALUE}")
+            int bufferSize,
+            @Option(names = {"--threads", "-t"}, paramLabel = "THREADS", description = "Number of threads decompressing the blocks of a framed container. Default: number of available processors.")
+            Integer threads,
+            @Option(names = {"--range", "-r"}, paramLabel = "START:LENGTH", description = "Decompresses only the given range of bytes. The file must have been compressed with --index.")
+            String range,
+            @Option(names = {"--stats"}, description = "Prints sizes, times of each phase, throughput and allocations once done.")
+            boolean printStats,
+            @Option(names = {"--stats-format"}, paramLabel = "FORMAT", defaultValue = "TEXT", description = "Format of the statistics. Valid values: ${COMPLETION-CANDIDATES}. Default: ${DEFAULT-VALUE}")
+            CompressionStats.Format statsFormat,
+            @Option(names = {"--no-daemon"}, description = "Decompresses in this process even if a daemon started with serve is running.")
+            boolean noDaemon) {
+        CompressionStats stats = printStats? new CompressionStats("decompress") : null;
+        int result = decompressFile(input, output, bufferSize, threads, range, stats, !noDaemon && stats == null);
+        return report(result, stats, statsFormat);
+    }
+
+    // Files that are not framed are decompressed by the running daemon, if any, when forwarding is allowed
+    private int decompressFile(File input, File output, int bufferSize, Integer threads, String range, CompressionStats stats, boolean forward) {
+        CompressionListener listener = stats == null? CompressionListener.NONE : stats;
+        long start = System.nanoTime();
+        long allocated = stats == null? -1 : CompressionStats.threadAllocatedBytes();
         try {
 
-            int validationCode = validateArguments(input, output);
+            int validationCode = validateFraming(threads, null);
             if(ExitCodes.isError(validationCode)) {
                 return validationCode;
             }
 
-            FileInputStream inputStream = new FileInputStream(input);
-
-            byte[] headerInFile = new byte[SQZ_HEADER.length];
-            inputStream.read(headerInFile);
+            long[] bounds = null;
+            if(range != null && (bounds = parseRange(range)) == null) {
+                System.err.println("Range must be given as START:LENGTH with non negative values: " + range);
+                return ExitCodes.USAGE;
+            }
 
-            if(!Arrays.equals(headerInFile, SQZ_HEADER)) {
-                System.err.println("Bad file input format. Should start by SQZ.");
-                return ExitCodes.NO_INPUT;
+            validationCode = validateArguments(input, output, bufferSize);
+            if(ExitCodes.isError(validationCode)) {
+                return validationCode;
             }
 
-            int opcode = inputStream.read();
-            AlgorithmInformation algorithm = AlgorithmInformation.fromOpcode(opcode);
+            if(bounds != null) {
+                int result = decompressRange(input, output, bufferSize, bounds[0], bounds[1]);
+                if(stats != null) {
+                    finish(stats, "RANGE", 0, allocated, input, output, start);
+                }
+                return result;
+            }
 
-            if(algorithm == null) {
-              System.err.println("Wron file input format. Wrong algorithm opcode: " + opcode);
-              return ExitCodes.NO_INPUT;
+            try(ChannelInputStream inputStream = new ChannelInputStream(input.toPath(), bufferSize)) {
+
+                byte[] headerInFile = inputStream.readNBytes(SQZ_HEADER.length);
+
+                if(!Arrays.equals(headerInFile, SQZ_HEADER)) {
+                    System.err.println("Bad file input format. Should start by SQZ.");
+                    return ExitCodes.NO_INPUT;
+                }
+
+                int opcode = inputStream.read();
+                if(opcode == FramedContainer.OPCODE) {
+                    try(ChannelOutputStream outputStream = new ChannelOutputStream(output.toPath(), bufferSize)) {
+                        FramedContainer container = new FramedContainer(FramedContainer.DEFAULT_BLOCK_SIZE,
+                                threads == null? Runtime.getRuntime().availableProcessors() : threads);
+                        container.setListener(listener);
+                        container.decompress(inputStream, outputStream);
+                        if(stats != null) {
+                            outputStream.flush();
+                            finish(stats, "FRAMED", inputStream.getWaitNanos() + outputStream.getWaitNanos(), allocated, input, output, start);
+                        }
+                    }
+                    return ExitCodes.SUCCESS;
+                }
+
+                CompressionAlgorithm algorithm = AlgorithmRegistry.getDefault().get(opcode);
+
+                if(algorithm == null) {
+                  System.err.println("Wron file input format. Wrong algorithm opcode: " + opcode);
+                  return ExitCodes.NO_INPUT;
+                }
+
+                try(ChannelOutputStream outputStream = new ChannelOutputStream(output.toPath(), bufferSize)) {
+                    if(!forward || !Daemon.forward(Daemon.DECOMPRESS, opcode, inputStream, outputStream)) {
+                        algorithm.decompress(inputStream, outputStream, listener);
+                    }
+                    if(stats != null) {
+                        outputStream.flush();
+                        finish(stats, algorithm.name(), inputStream.getWaitNanos() + outputStream.getWaitNanos(), allocated, input, output, start);
+                    }
+                }
             }
 
-            FileOutputStream outputStream = new FileOutputStream(output);
-            CompressionAlgorithm implementation = algorithm.getInstance();
-            implementation.decompress(inputStream, outputStream);
-            inputStream.close();
+        } catch (BadFileFormatException exc) {
+            System.err.println("Corrupted file " + input + ": " + exc.getMessage());
+            return ExitCodes.DATA_ERROR;
+        } catch (IOException exc) {
+            System.err.println("Unexpected I/O exception: " + exc.getMessage());
+            return ExitCodes.IO_ERROR;
+        } catch (IndexOutOfBoundsException exc) {
+            // A decoder reading past its tables on arbitrary input, the daemon reports it the same way
+            System.err.println("Corrupted file " + input + ": " + exc);
+            return ExitCodes.DATA_ERROR;
+        }
+
+        return ExitCodes.SUCCESS;
+    }
+
+    @Command(name="compress-all", aliases = {"ca"}, description = "Compresses many files in a single run, several at a time. Each file is written with the .sqz extension added.")
+    public int compressAll(
+            @Option(names = {"--use", "-u"}, paramLabel = "ALGORITHM", defaultValue = "LZW", description = "Algorithm to compress the given files. Valid values: ${COMPLETION-CANDIDATES})" )
+            AlgorithmInformation algorithm,
+            @Parameters(arity = "0..*", paramLabel = "PATH", description = "Files, directories, whose files are all compressed, or glob patterns such as logs/*.log.")
+            List<String> paths,
+            @Option(names = {"--manifest", "-m"}, paramLabel = "FILE", description = "File listing one path or pattern per line. Empty lines and lines starting with # are ignored.")
+            File manifest,
+            @Option(names = {"--output-dir", "-o"}, paramLabel = "DIRECTORY", description = "Directory where the compressed files are created, keeping the layout of the given directories. Default: next to each file.")
+            File outputDirectory,
+            @Option(names = {"--buffer-size", "-b"}, paramLabel = "BYTES", defaultValue = "" + ChannelInputStream.DEFAULT_BUFFER_SIZE, description = "Size of the I/O buffers. Default: ${DEFAULT-VALUE}")
+            int bufferSize,
+            @Option(names = {"--threads", "-t"}, paramLabel = "THREADS", description = "Number of files processed at once. Default: number of available processors.")
+            Integer threads,
+            @Option(names = {"--checksum"}, description = "Stores the CRC32C of each block of each file. Writes framed containers.")
+            boolean checksums) {
+        // Framed files are compressed on a single thread each, the pool already runs several files
+        Integer blockThreads = checksums? 1 : null;
+        return runBatch(paths, manifest, outputDirectory, threads, FileBatch::compressedName,
+                (input, output) -> compressFile(algorithm, input, output, bufferSize, blockThreads, null, false, checksums, null, false));
+    }
 
-            outputStream.flush();
-            outputStream.close();
+    @Command(name="decompress-all", aliases = {"da"}, description = "Decompresses many files in a single run, several at a time. The .sqz extension is removed from each file name, or .out is added.")
+    public int decompressAll(
+            @Parameters(arity = "0..*", paramLabel = "PATH", description = "Files, directories, whose files are all decompressed, or glob patterns such as logs/*.sqz.")
+            List<String> paths,
+            @Option(names = {"--manifest", "-m"}, paramLabel = "FILE", description = "File listing one path or pattern per line. Empty lines and lines starting with # are ignored.")
+            File manifest,
+            @Option(names = {"--output-dir", "-o"}, paramLabel = "DIRECTORY", description = "Directory where the decompressed files are created, keeping the layout of the given directories. Default: next to each file.")
+            File outputDirectory,
+            @Option(names = {"--buffer-size", "-b"}, paramLabel = "BYTES", defaultValue = "" + ChannelInputStream.DEFAULT_BUFFER_SIZE, description = "Size of the I/O buffers. Default: ${DEFAULT-VALUE}")
+            int bufferSize,
+            @Option(names = {"--threads", "-t"}, paramLabel = "THREADS", description = "Number of files processed at once. Default: number of available processors.")
+            Integer threads) {
+        // Framed files are decompressed on a single thread each, the pool already runs several files
+        return runBatch(paths, manifest, outputDirectory, threads, FileBatch::decompressedName,
+                (input, output) -> decompressFile(input, output, bufferSize, 1, null, null, false));
+    }
 
+    @Command(name="test", aliases = {"verify"}, description = "Checks compressed files by decompressing them without writing anything. Block checksums of files compressed with --checksum are verified.")
+    public int test(
+            @Parameters(arity = "1..*", paramLabel = "PATH", description = "Files, directories, whose files are all checked, or glob patterns such as logs/*.sqz.")
+            List<String> paths,
+            @Option(names = {"--buffer-size", "-b"}, paramLabel = "BYTES", defaultValue = "" + ChannelInputStream.DEFAULT_BUFFER_SIZE, description = "Size of the I/O buffers. Default: ${DEFAULT-VALUE}")
+            int bufferSize,
+            @Option(names = {"--threads", "-t"}, paramLabel = "THREADS", description = "Number of threads decompressing the blocks of a framed container. Default: number of available processors.")
+            Integer threads) {
+        int validation = validateFraming(threads, null);
+        if(ExitCodes.isError(validation)) {
+            return validation;
+        }
+        if (bufferSize < 1) {
+            System.err.println("Buffer size must be positive: " + bufferSize);
+            return ExitCodes.USAGE;
+        }
+        List<Path> files;
+        try {
+            files = FileBatch.collect(paths, null).inputs();
         } catch (IOException exc) {
             System.err.println("Unexpected I/O exception: " + exc.getMessage());
             return ExitCodes.IO_ERROR;
-        } catch (InstantiationException | InvocationTargetException | NoSuchMethodException | IllegalAccessException exc) {
-            System.err.println("Unexcepted error: " + exc.getMessage());
+        }
+        long start = System.nanoTime();
+        int result = ExitCodes.SUCCESS;
+        int failed = 0;
+        long decompressed = 0;
+        for(Path file : files) {
+            CompressionStats stats = new CompressionStats("decompress");
+            int code = testFile(file, bufferSize, threads == null? Runtime.getRuntime().availableProcessors() : threads, stats);
+            if(ExitCodes.isError(code)) {
+                failed++;
+                if(!ExitCodes.isError(result)) result = code;
+                continue;
+            }
+            decompressed += stats.getBytesOut();
+            System.out.printf(Locale.ROOT, "OK: %s (%d bytes, %.1f MB/s%s)%n", file, stats.getBytesOut(), stats.throughput(),
+                    stats.phases().containsKey(CompressionListener.CHECKSUM)? ", checksums verified" : "");
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf(Locale.ROOT, "%d files tested, %d failed. Decompressed %d bytes in %.3f s (%.1f MB/s)%n",
+                files.size(), failed, decompressed, seconds, seconds > 0? decompressed / (1024.0 * 1024.0) / seconds : 0);
+        return result;
+    }
+
+    // Decompresses the file into a discarding stream, the stats receive its sizes and phases
+    private int testFile(Path file, int bufferSize, int threads, CompressionStats stats) {
+        long start = System.nanoTime();
+        if(!Files.isRegularFile(file) || !Files.isReadable(file)) {
+            System.err.println("Input file is not readable: " + file);
+            return ExitCodes.NO_INPUT;
+        }
+        try(ChannelInputStream inputStream = new ChannelInputStream(file, bufferSize)) {
+            DiscardingOutputStream outputStream = new DiscardingOutputStream();
+            if(!Arrays.equals(inputStream.readNBytes(SQZ_HEADER.length), SQZ_HEADER)) {
+                System.err.println("Bad file input format. Should start by SQZ: " + file);
+                return ExitCodes.DATA_ERROR;
+            }
+            int opcode = inputStream.read();
+            String name;
+            if(opcode == FramedContainer.OPCODE) {
+                FramedContainer container = new FramedContainer(FramedContainer.DEFAULT_BLOCK_SIZE, threads);
+                container.setListener(stats);
+                container.decompress(inputStream, outputStream);
+                name = "FRAMED";
+            }
+            else {
+                CompressionAlgorithm algorithm = AlgorithmRegistry.getDefault().get(opcode);
+                if(algorithm == null) {
+                    System.err.println("Wrong algorithm opcode " + opcode + ": " + file);
+                    return ExitCodes.DATA_ERROR;
+                }
+                algorithm.decompress(inputStream, outputStream, stats);
+                name = algorithm.name();
+            }
+            stats.finish(name, Files.size(file), outputStream.getCount(), System.nanoTime() - start);
+        } catch (BadFileFormatException exc) {
+            System.err.println("Corrupted file " + file + ": " + exc.getMessage());
+            return ExitCodes.DATA_ERROR;
+        } catch (IOException exc) {
+            System.err.println("Unexpected I/O exception on " + file + ": " + exc.getMessage());
+            return ExitCodes.IO_ERROR;
+        } catch (IndexOutOfBoundsException exc) {
+            // A decoder reading past its tables on arbitrary input, the others are still tested
+            System.err.println("Corrupted file " + file + ": " + exc);
+            return ExitCodes.DATA_ERROR;
+        } catch (RuntimeException exc) {
+            System.err.println("Unexpected error on " + file + ": " + exc);
             return ExitCodes.SOFTWARE_ERROR;
         }
+        return ExitCodes.SUCCESS;
+    }
+
+    private int runBatch(List<String> paths, File manifest, File outputDirectory, Integer threads, UnaryOperator<String> naming, FileBatch.Task task) {
+        int validation = validateFraming(threads, null);
+        if(ExitCodes.isError(validation)) {
+            return validation;
+        }
+        if (manifest != null && !manifest.canRead()) {
+            System.err.println("Manifest is not readable: " + manifest.getAbsolutePath());
+            return ExitCodes.NO_INPUT;
+        }
+        if (outputDirectory != null && outputDirectory.exists() && !outputDirectory.isDirectory()) {
+            System.err.println("Output path is not a directory: " + outputDirectory.getAbsolutePath());
+            return ExitCodes.CANT_CREATE;
+        }
+        try {
+            FileBatch batch = FileBatch.collect(paths == null? List.of() : paths, manifest);
+            if(batch.isEmpty()) {
+                System.err.println("No file to process.");
+                return ExitCodes.NO_INPUT;
+            }
+            return batch.run(outputDirectory, naming, threads == null? Runtime.getRuntime().availableProcessors() : threads, task);
+        } catch (IOException exc) {
+            System.err.println("Unexpected I/O exception: " + exc.getMessage());
+            return ExitCodes.IO_ERROR;
+        }
+    }
+
+    // Records the totals of a command, output must have been flushed
+    private static void finish(CompressionStats stats, String algorithm, long ioWaitNanos, long allocatedBefore, File input, File output, long start) {
+        if(allocatedBefore >= 0) {
+            stats.allocated(CompressionStats.threadAllocatedBytes() - allocatedBefore);
+        }
+        stats.ioWait(ioWaitNanos);
+        stats.finish(algorithm, input.length(), output.length(), System.nanoTime() - start);
+    }
+
+    private static int report(int result, CompressionStats stats, CompressionStats.Format format) {
+        if(stats != null && !ExitCodes.isError(result)) {
+            System.out.print(stats.format(format));
+            if(format == CompressionStats.Format.JSON) System.out.println();
+        }
+        return result;
+    }
+
+    private int decompressRange(File input, File output, int bufferSize, long start, long length) throws IOException {
+        try(SqzArchive archive = SqzArchive.open(input.toPath());
+            OutputStream outputStream = new ChannelOutputStream(output.toPath(), bufferSize)) {
+            if(start > archive.size()) {
+                System.err.println("Range starts after the end of the content: " + archive.size() + " bytes");
+                return ExitCodes.USAGE;
+            }
+            archive.decompress(start, Math.min(length, archive.size() - start), outputStream);
+        }
+        return ExitCodes.SUCCESS;
+    }
 
+    private static long[] parseRange(String range) {
+        String[] parts = range.split(":", -1);
+        if(parts.length != 2) return null;
+        try {
+            long start = Long.parseLong(parts[0]);
+            long length = Long.parseLong(parts[1]);
+            return start < 0 || length < 0? null : new long[] { start, length };
+        } catch (NumberFormatException exc) {
+            return null;
+        }
+    }
+
+    @Command(name="serve", description = "Keeps running to compress and decompress files for the compress and decompress commands, which then skip the startup of the application. Framed containers are still processed by the commands themselves. Stops when interrupted.")
+    public int serve(
+            @Option(names = {"--port", "-p"}, paramLabel = "PORT", defaultValue = "0", description = "Port on the loopback interface. Default: any free port. The port is written with an access token to ~/.squeezer-daemon.")
+            int port,
+            @Option(names = {"--workers", "-w"}, paramLabel = "THREADS", description = "Number of requests processed at once, the others wait for a worker. Default: number of available processors.")
+            Integer workers) {
+        int validation = validateFraming(workers, null);
+        if(ExitCodes.isError(validation)) {
+            return validation;
+        }
+        if (port < 0 || port > 0xFFFF) {
+            System.err.println("Port must be between 0 and 65535: " + port);
+            return ExitCodes.USAGE;
+        }
+        int running = Daemon.runningPort(Daemon.portFile());
+        if (running >= 0) {
+            System.err.println("A daemon is already running on port " + running);
+            return ExitCodes.USAGE;
+        }
+        try {
+            Daemon daemon = new Daemon(port, workers == null? Runtime.getRuntime().availableProcessors() : workers, Daemon.portFile());
+            // Closed by the hook when interrupted, which makes serve return
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    daemon.close();
+                } catch (IOException exc) {
+                    System.err.println("Unexpected I/O exception: " + exc.getMessage());
+                }
+            }));
+            System.out.println("Serving on port " + daemon.getPort());
+            try {
+                daemon.serve();
+            } finally {
+                daemon.close();
+            }
+        } catch (IOException exc) {
+            System.err.println("Unexpected I/O exception: " + exc.getMessage());
+            return ExitCodes.IO_ERROR;
+        }
         return ExitCodes.SUCCESS;
     }
 
@@ -151,40 +532,49 @@ public class Application {
         }
     }
 
-    enum AlgorithmInformation {
-        RUN_LENGTH(2,"Run-length compression algorithm", RunLengthCompression.class),
-        HUFFMAN (1, "Huffman compression algorithm", HuffmanEncoding.class),
-        LZW (0, "Lempel-Ziv-Welch compression algorithm",LZWCompression.class);
-
-        int opcode;
-        String description;
-        Class<? extends CompressionAlgorithm> implementation;
-
-        AlgorithmInformation(int opcode, String description, Class<? extends CompressionAlgorithm> implementation) {
-            this.opcode = opcode;
-            this.description = description;
-            this.implementation = implementation;
+    // Values of the --use option. Algorithms are taken from the default AlgorithmRegistry by name.
+    public enum AlgorithmInformation {
+        RUN_LENGTH,
+        HUFFMAN,
+        LZW,
+        // Never written, the selected algorithm is
+        AUTO ("Picks one of the algorithms above by sampling the input, for each block in a framed container");
+
+        final int opcode;
+        final String description;
+        private final CompressionAlgorithm implementation;
+
+        AlgorithmInformation() {
+            implementation = AlgorithmRegistry.getDefault().get(name());
+            if(implementation == null) {
+                throw new IllegalStateException("No registered algorithm is named " + name());
+            }
+            opcode = implementation.opcode();
+            description = implementation.description();
         }
 
-        public CompressionAlgorithm getInstance() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
-            return implementation.getConstructor().newInstance();
+        AlgorithmInformation(String description) {
+            this.implementation = null;
+            this.opcode = -1;
+            this.description = description;
         }
 
-        public static AlgorithmInformation fromOpcode(int opcode) {
-            for(AlgorithmInformation info : AlgorithmInformation.values()) {
-                if(opcode == info.opcode)
-                    return info;
+        // Shared by every caller, algorithms are thread safe
+        public CompressionAlgorithm getInstance() {
+            if(implementation == null) {
+                throw new IllegalStateException(name() + " is not an algorithm, one must be selected first");
             }
-            return null;
+            return implementation;
         }
-
     }
 
 
     static class ExitCodes {
         private ExitCodes() {}
         public static final int SUCCESS = 0;
+        public static final int USAGE = 2;
         public static final int NO_INPUT = 64;
+        public static final int DATA_ERROR = 65;
         public static final int SOFTWARE_ERROR = 70;
         public static final int CANT_CREATE = 73;
         public static final int IO_ERROR = 74;
@@ -0,0 +1,89 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Trailing index of a framed container. Maps the uncompressed offset of every block to the
+// offset of the block in the container payload:
+//
+// ┌─────────┐┌────────────────────────────────┐┌──────────────┐┌──────────────┐
+// │ Entries ││ Uncompressed offset, offset ×N ││ Total length ││ Index offset │
+// └─────────┘└────────────────────────────────┘└──────────────┘└──────────────┘
+//
+// The index offset is the last field of the file, so readers find the index from the end.
+class BlockIndex {
+
+    static final int FOOTER_LENGTH = 8;
+
+    private long[] uncompressedOffsets = new long[16];
+    private long[] blockOffsets = new long[16];
+    private int count = 0;
+    private long totalLength = 0;
+
+    void add(long blockOffset, int length) {
+        if(count == blockOffsets.length) {
+            uncompressedOffsets = Arrays.copyOf(uncompressedOffsets, 2 * count);
+            blockOffsets = Arrays.copyOf(blockOffsets, 2 * count);
+        }
+        uncompressedOffsets[count] = totalLength;
+        blockOffsets[count] = blockOffset;
+        count++;
+        totalLength += length;
+    }
+
+    int count() { return count; }
+
+    long totalLength() { return totalLength; }
+
+    long uncompressedOffset(int block) { return uncompressedOffsets[block]; }
+
+    long blockOffset(int block) { return blockOffsets[block]; }
+
+    // Block containing the given uncompressed offset
+    int find(long offset) {
+        int found = Arrays.binarySearch(uncompressedOffsets, 0, count, offset);
+        return found >= 0? found : -found - 2;
+    }
+
+    // Writes the index, given its own offset in the container payload
+    void write(long indexOffset, OutputStream output) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 16 * count + 8 + FOOTER_LENGTH);
+        buffer.putInt(count);
+        for(int i = 0; i < count; i++) {
+            buffer.putLong(uncompressedOffsets[i]);
+            buffer.putLong(blockOffsets[i]);
+        }
+        buffer.putLong(totalLength);
+        buffer.putLong(indexOffset);
+        output.write(buffer.array());
+    }
+
+    static int length(int entries) {
+        return 4 + 16 * entries + 8 + FOOTER_LENGTH;
+    }
+
+    // Reads the index from a buffer holding it, footer included
+    static BlockIndex read(ByteBuffer buffer) throws IOException {
+        int entries = buffer.getInt();
+        if(entries < 0 || buffer.remaining() != length(entries) - 4) {
+            throw new BadFileFormatException("Invalid block index.");
+        }
+        BlockIndex index = new BlockIndex();
+        index.uncompressedOffsets = new long[Math.max(entries, 1)];
+        index.blockOffsets = new long[Math.max(entries, 1)];
+        for(int i = 0; i < entries; i++) {
+            index.uncompressedOffsets[i] = buffer.getLong();
+            index.blockOffsets[i] = buffer.getLong();
+            if(i > 0 && (index.uncompressedOffsets[i] <= index.uncompressedOffsets[i - 1] || index.blockOffsets[i] <= index.blockOffsets[i - 1])) {
+                throw new BadFileFormatException("Block index entries are not in order.");
+            }
+        }
+        index.count = entries;
+        index.totalLength = buffer.getLong();
+        return index;
+    }
+}
@@ -0,0 +1,118 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.FramedContainer.BlockSelector;
+import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
+import fr.istic.vandv.squeezer.algorithms.CompressionListener;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes an SQZ file holding a framed container. Bytes are gathered in a block that is compressed
+// once full, so at most one block is kept in memory. flush() compresses the pending bytes as a
+// shorter block, which lets the reader get every byte written so far, at some cost in ratio.
+public class CompressingOutputStream extends FilterOutputStream {
+
+    private final BlockSelector selector;
+    private final boolean checksums;
+    private final byte[] block;
+    private int length = 0;
+    private boolean finished = false;
+    private CompressionListener listener = CompressionListener.NONE;
+
+    public CompressingOutputStream(OutputStream output, CompressionAlgorithm algorithm) throws IOException {
+        this(output, algorithm, FramedContainer.DEFAULT_BLOCK_SIZE);
+    }
+
+    public CompressingOutputStream(OutputStream output, CompressionAlgorithm algorithm, int blockSize) throws IOException {
+        this(output, algorithm, blockSize, false);
+    }
+
+    // With checksums, the CRC32C of each block is stored and verified by DecompressingInputStream
+    public CompressingOutputStream(OutputStream output, CompressionAlgorithm algorithm, int blockSize, boolean checksums) throws IOException {
+        this(output, BlockSelector.of(algorithm), blockSize, checksums);
+    }
+
+    // Each block is compressed with the algorithm the selector picks for its content
+    public CompressingOutputStream(OutputStream output, BlockSelector selector, int blockSize, boolean checksums) throws IOException {
+        super(output);
+        if(blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive. Got: " + blockSize);
+        }
+        this.selector = selector;
+        this.checksums = checksums;
+        this.block = new byte[blockSize];
+        out.write(Application.SQZ_HEADER);
+        out.write(FramedContainer.OPCODE);
+        FramedContainer.writeHeader(checksums? FramedContainer.CHECKSUMS : 0, blockSize, out);
+    }
+
+    // Receives the phases of the following blocks
+    public void setListener(CompressionListener listener) { this.listener = listener; }
+
+    @Override
+    public void write(int value) throws IOException {
+        ensureOpen();
+        block[length++] = (byte) value;
+        if(length == block.length) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] values, int offset, int count) throws IOException {
+        if(offset < 0 || count < 0 || offset > values.length - count) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + count + ") out of bounds for length " + values.length);
+        }
+        ensureOpen();
+        while(count > 0) {
+            int chunk = Math.min(count, block.length - length);
+            System.arraycopy(values, offset, block, length, chunk);
+            length += chunk;
+            offset += chunk;
+            count -= chunk;
+            if(length == block.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    // Compresses the pending bytes and flushes the underlying stream
+    @Override
+    public void flush() throws IOException {
+        if(!finished) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    // Writes the remaining bytes and the end marker without closing the underlying stream
+    public void finish() throws IOException {
+        if(finished) return;
+        writeBlock();
+        out.write(FramedContainer.END_OF_BLOCKS);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if(length == 0) return;
+        out.write(FramedContainer.compressBlock(block, length, selector, checksums, listener));
+        length = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if(finished) {
+            throw new IOException("Stream is finished.");
+        }
+    }
+}
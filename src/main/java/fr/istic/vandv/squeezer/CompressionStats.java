@@ -0,0 +1,152 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.algorithms.CompressionListener;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measurements of a compress or decompress command, printed with --stats. Phases of blocks
+// processed in parallel are summed, so they may add up to more than the elapsed time.
+public class CompressionStats implements CompressionListener {
+
+    public enum Format { TEXT, JSON }
+
+    private final String operation;
+    private final Map<String, LongAdder> phases = new LinkedHashMap<>();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder blocks = new LongAdder();
+    private boolean allocationMeasured = false;
+    private String algorithm = "";
+    private long bytesIn;
+    private long bytesOut;
+    private long nanos;
+    private long ioWaitNanos;
+
+    public CompressionStats(String operation) {
+        this.operation = operation;
+    }
+
+    @Override
+    public void phase(String name, long nanos) {
+        LongAdder total;
+        synchronized (phases) {
+            total = phases.computeIfAbsent(name, key -> new LongAdder());
+        }
+        total.add(nanos);
+    }
+
+    @Override
+    public void allocated(long bytes) {
+        if(bytes < 0) return;
+        allocated.add(bytes);
+        allocationMeasured = true;
+    }
+
+    @Override
+    public void block(int uncompressedLength, int compressedLength) {
+        blocks.increment();
+    }
+
+    public void ioWait(long nanos) {
+        ioWaitNanos += nanos;
+    }
+
+    // Records the totals of the command once it is done
+    public void finish(String algorithm, long bytesIn, long bytesOut, long nanos) {
+        this.algorithm = algorithm;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.nanos = nanos;
+    }
+
+    public long getBytesIn() { return bytesIn; }
+
+    public long getBytesOut() { return bytesOut; }
+
+    public long getNanos() { return nanos; }
+
+    // Compressed size over uncompressed size
+    public double ratio() {
+        long uncompressed = operation.equals("decompress")? bytesOut : bytesIn;
+        long compressed = operation.equals("decompress")? bytesIn : bytesOut;
+        return uncompressed == 0? 0 : (double) compressed / uncompressed;
+    }
+
+    // Uncompressed megabytes processed per second
+    public double throughput() {
+        long uncompressed = operation.equals("decompress")? bytesOut : bytesIn;
+        return nanos == 0? 0 : uncompressed / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+
+    public String format(Format format) {
+        return format == Format.JSON? toJson() : toText();
+    }
+
+    public String toText() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "%-14s %s%n", "Operation", operation));
+        builder.append(String.format(Locale.ROOT, "%-14s %s%n", "Algorithm", algorithm));
+        builder.append(String.format(Locale.ROOT, "%-14s %d bytes%n", "Read", bytesIn));
+        builder.append(String.format(Locale.ROOT, "%-14s %d bytes%n", "Written", bytesOut));
+        builder.append(String.format(Locale.ROOT, "%-14s %.4f%n", "Ratio", ratio()));
+        builder.append(String.format(Locale.ROOT, "%-14s %.3f s%n", "Time", nanos / 1e9));
+        builder.append(String.format(Locale.ROOT, "%-14s %.1f MB/s%n", "Throughput", throughput()));
+        builder.append(String.format(Locale.ROOT, "%-14s %.3f s%n", "I/O wait", ioWaitNanos / 1e9));
+        builder.append(String.format(Locale.ROOT, "%-14s %s%n", "Allocated", allocationMeasured? allocated.sum() + " bytes" : "unavailable"));
+        if(blocks.sum() > 0) {
+            builder.append(String.format(Locale.ROOT, "%-14s %d%n", "Blocks", blocks.sum()));
+        }
+        builder.append("Phases").append(System.lineSeparator());
+        for(Map.Entry<String, Long> phase : phases().entrySet()) {
+            builder.append(String.format(Locale.ROOT, "  %-12s %.3f s%n", phase.getKey(), phase.getValue() / 1e9));
+        }
+        return builder.toString();
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder("{");
+        builder.append("\"operation\":\"").append(operation).append("\",");
+        builder.append("\"algorithm\":\"").append(algorithm).append("\",");
+        builder.append("\"bytesIn\":").append(bytesIn).append(',');
+        builder.append("\"bytesOut\":").append(bytesOut).append(',');
+        builder.append("\"ratio\":").append(String.format(Locale.ROOT, "%.6f", ratio())).append(',');
+        builder.append("\"seconds\":").append(String.format(Locale.ROOT, "%.6f", nanos / 1e9)).append(',');
+        builder.append("\"megabytesPerSecond\":").append(String.format(Locale.ROOT, "%.3f", throughput())).append(',');
+        builder.append("\"ioWaitSeconds\":").append(String.format(Locale.ROOT, "%.6f", ioWaitNanos / 1e9)).append(',');
+        builder.append("\"allocatedBytes\":").append(allocationMeasured? String.valueOf(allocated.sum()) : "null").append(',');
+        builder.append("\"blocks\":").append(blocks.sum()).append(',');
+        builder.append("\"phases\":{");
+        String separator = "";
+        for(Map.Entry<String, Long> phase : phases().entrySet()) {
+            builder.append(separator).append('"').append(phase.getKey()).append("\":")
+                    .append(String.format(Locale.ROOT, "%.6f", phase.getValue() / 1e9));
+            separator = ",";
+        }
+        return builder.append("}}").toString();
+    }
+
+    // Total nanoseconds of each phase, in the order they were first reported
+    public Map<String, Long> phases() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        synchronized (phases) {
+            phases.forEach((name, total) -> result.put(name, total.sum()));
+        }
+        return result;
+    }
+
+    // Bytes allocated so far by the current thread, -1 if the JVM does not tell
+    public static long threadAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if(bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,453 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.algorithms.AlgorithmRegistry;
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
+import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Keeps a warmed up JVM compressing and decompressing algorithm payloads for the compress and
+// decompress commands, which then skip their own startup. The daemon only listens on the loopback
+// interface and writes its port to a file readable by its user only, with a token clients must send.
+//
+// The client first sends the protocol version and a random nonce. The daemon answers with the HMAC
+// of the nonce keyed with the token, which proves it read the port file: a process that took the
+// port of a killed daemon gets nothing else, and the client compresses by itself. The request then
+// is the token, the operation and the algorithm opcode, followed by the input until the client
+// shuts its side down. The response is a sequence of chunks, each a positive length and as many
+// bytes, ended by END, or by ERROR, FORMAT_ERROR or INTERNAL_ERROR and a message.
+final class Daemon implements Closeable {
+
+    static final int VERSION = 2;
+    static final int COMPRESS = 1;
+    static final int DECOMPRESS = 2;
+
+    private static final int END = 0;
+    private static final int ERROR = -1;
+    // The input is not a valid payload, the client reports it as a local run would
+    private static final int FORMAT_ERROR = -2;
+    // A bug of the daemon, raised again by the client as a local run would
+    private static final int INTERNAL_ERROR = -3;
+
+    private static final int TOKEN_LENGTH = 16;
+    private static final int NONCE_LENGTH = 16;
+    private static final String PROOF_ALGORITHM = "HmacSHA256";
+    private static final int BUFFER_SIZE = 64 << 10;
+    private static final int CONNECT_TIMEOUT_MILLIS = 500;
+    // A daemon whose workers are all busy for longer leaves the request to the client
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 2000;
+    private static final int SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final ServerSocket server;
+    private final ExecutorService pool;
+    // One permit per worker, taken before accepting a connection. Clients arriving while every
+    // worker is busy wait in the backlog of the socket until their handshake times out.
+    private final Semaphore workers;
+    private final Path portFile;
+    private final byte[] token = new byte[TOKEN_LENGTH];
+
+    Daemon(int port, int workers, Path portFile) throws IOException {
+        this.server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        this.pool = Executors.newFixedThreadPool(workers);
+        this.workers = new Semaphore(workers);
+        this.portFile = portFile;
+        RANDOM.nextBytes(token);
+    }
+
+    static Path portFile() {
+        return Paths.get(System.getProperty("user.home"), ".squeezer-daemon");
+    }
+
+    int getPort() { return server.getLocalPort(); }
+
+    // Port of the daemon answering on the port file, or -1 if none does
+    static int runningPort(Path portFile) {
+        Endpoint endpoint = Endpoint.read(portFile);
+        if(endpoint == null) return -1;
+        Socket socket = endpoint.connect();
+        if(socket == null) return -1;
+        try {
+            return authenticate(socket, endpoint.token)? endpoint.port : -1;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Nothing left to release
+            }
+        }
+    }
+
+    // Publishes the port file, then serves requests until the daemon is closed
+    void serve() throws IOException {
+        // Created with permissions for its owner only, then renamed so clients never read it half written
+        Path temporary = Files.createTempFile(portFile.toAbsolutePath().getParent(), ".squeezer-daemon", ".tmp");
+        Files.write(temporary, portFileContent().getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary, portFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        while(true) {
+            workers.acquireUninterruptibly();
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException exc) {
+                workers.release();
+                if(server.isClosed()) return;
+                System.err.println("Connection failed: " + exc.getMessage());
+                continue;
+            }
+            try {
+                pool.execute(() -> {
+                    try {
+                        handle(socket);
+                    } finally {
+                        workers.release();
+                    }
+                });
+            } catch (RejectedExecutionException exc) {
+                // Closed since the connection was accepted
+                socket.close();
+                return;
+            }
+        }
+    }
+
+    private String portFileContent() {
+        return getPort() + " " + Base64.getEncoder().encodeToString(token) + "\n";
+    }
+
+    private void handle(Socket connection) {
+        try(Socket socket = connection) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            DataOutputStream response = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            ChunkedOutputStream output = new ChunkedOutputStream(response);
+            try {
+                prove(input, response);
+                process(input, output);
+                output.end();
+            } catch (BadFileFormatException exc) {
+                output.fail(FORMAT_ERROR, exc.getDetail());
+            } catch (IOException exc) {
+                output.fail(ERROR, exc.getMessage());
+            } catch (RuntimeException exc) {
+                output.fail(INTERNAL_ERROR, exc.toString());
+            }
+            // Unread input would make closing the socket reset the connection, and the client could lose the response
+            socket.shutdownOutput();
+            input.transferTo(OutputStream.nullOutputStream());
+        } catch (IOException exc) {
+            // The client is gone, there is nobody to tell
+        }
+    }
+
+    // Answers the nonce of the client, before it sends anything that must stay private
+    private void prove(DataInputStream input, DataOutputStream response) throws IOException {
+        int version = input.read();
+        if(version != VERSION) {
+            throw new IOException("Unsupported daemon protocol version: " + version);
+        }
+        byte[] nonce = new byte[NONCE_LENGTH];
+        input.readFully(nonce);
+        response.write(proof(token, nonce));
+        response.flush();
+    }
+
+    private void process(DataInputStream input, OutputStream output) throws IOException {
+        byte[] received = new byte[TOKEN_LENGTH];
+        input.readFully(received);
+        if(!MessageDigest.isEqual(received, token)) {
+            throw new IOException("Invalid daemon token.");
+        }
+        int operation = input.read();
+        int opcode = input.read();
+        CompressionAlgorithm algorithm = AlgorithmRegistry.getDefault().get(opcode);
+        if(algorithm == null) {
+            throw new BadFileFormatException("Wrong algorithm opcode: " + opcode);
+        }
+        if(operation == COMPRESS) {
+            algorithm.compress(input, output);
+        }
+        else if(operation == DECOMPRESS) {
+            try {
+                algorithm.decompress(input, output);
+            } catch (IndexOutOfBoundsException exc) {
+                // A decoder reading past its tables on arbitrary input, as a local run reports it
+                throw new BadFileFormatException("Payload can not be decompressed: " + exc);
+            }
+        }
+        else {
+            throw new IOException("Unknown daemon operation: " + operation);
+        }
+    }
+
+    // Stops accepting requests, lets the running ones finish for a while and removes the port file
+    // unless another daemon replaced it
+    @Override
+    public synchronized void close() throws IOException {
+        server.close();
+        pool.shutdown();
+        try {
+            if(!pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException exc) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if(portFileContent().equals(Files.readString(portFile, StandardCharsets.US_ASCII))) {
+                Files.delete(portFile);
+            }
+        } catch (NoSuchFileException exc) {
+            // Never written or already removed
+        }
+    }
+
+    // Runs the operation on the running daemon, reading the payload from the input and writing the
+    // result to the output. Returns false, having read and written nothing, when no daemon answers
+    // or the listener on its port does not prove it holds the token.
+    static boolean forward(int operation, int opcode, InputStream input, OutputStream output) throws IOException {
+        return forward(portFile(), operation, opcode, input, output);
+    }
+
+    static boolean forward(Path portFile, int operation, int opcode, InputStream input, OutputStream output) throws IOException {
+        Endpoint endpoint = Endpoint.read(portFile);
+        if(endpoint == null) return false;
+        Socket socket = endpoint.connect();
+        if(socket == null) return false;
+        try {
+            if(!authenticate(socket, endpoint.token)) return false;
+            // The input is sent from another thread while the response is read, neither side can fill
+            // its buffers and wait for the other
+            FutureTask<Void> sending = new FutureTask<>(() -> {
+                send(socket, endpoint.token, operation, opcode, input);
+                return null;
+            });
+            Thread sender = new Thread(sending, "squeezer-daemon-sender");
+            sender.setDaemon(true);
+            sender.start();
+            try {
+                receive(socket, output);
+            } catch (IOException exc) {
+                // Stops the sender, whose own failure is a consequence of this one
+                socket.close();
+                await(sending);
+                throw exc;
+            }
+            IOException failure = await(sending);
+            if(failure != null) throw failure;
+        } finally {
+            socket.close();
+        }
+        return true;
+    }
+
+    // Whether the listener answers a fresh nonce with its HMAC keyed with the token. Only the
+    // version and the nonce are sent before, a listener that is not the daemon learns nothing.
+    private static boolean authenticate(Socket socket, byte[] token) {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        byte[] expected = proof(token, nonce);
+        byte[] received = new byte[expected.length];
+        try {
+            OutputStream output = socket.getOutputStream();
+            byte[] hello = new byte[1 + NONCE_LENGTH];
+            hello[0] = VERSION;
+            System.arraycopy(nonce, 0, hello, 1, NONCE_LENGTH);
+            output.write(hello);
+            output.flush();
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            new DataInputStream(socket.getInputStream()).readFully(received);
+            socket.setSoTimeout(0);
+        } catch (IOException exc) {
+            // Closed, reset or silent: not a daemon able to serve the request
+            return false;
+        }
+        return MessageDigest.isEqual(expected, received);
+    }
+
+    private static byte[] proof(byte[] token, byte[] nonce) {
+        try {
+            Mac mac = Mac.getInstance(PROOF_ALGORITHM);
+            mac.init(new SecretKeySpec(token, PROOF_ALGORITHM));
+            return mac.doFinal(nonce);
+        } catch (GeneralSecurityException exc) {
+            throw new IllegalStateException(PROOF_ALGORITHM + " is required by every Java platform", exc);
+        }
+    }
+
+    private static void send(Socket socket, byte[] token, int operation, int opcode, InputStream input) throws IOException {
+        OutputStream output = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+        output.write(token);
+        output.write(operation);
+        output.write(opcode);
+        input.transferTo(output);
+        output.flush();
+        socket.shutdownOutput();
+    }
+
+    private static void receive(Socket socket, OutputStream output) throws IOException {
+        DataInputStream response = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while((length = response.readInt()) > 0) {
+            while(length > 0) {
+                int read = response.read(buffer, 0, Math.min(length, buffer.length));
+                if(read < 0) {
+                    throw new IOException("The daemon closed the connection.");
+                }
+                output.write(buffer, 0, read);
+                length -= read;
+            }
+        }
+        if(length == FORMAT_ERROR) {
+            throw new BadFileFormatException(response.readUTF());
+        }
+        if(length == INTERNAL_ERROR) {
+            throw new IllegalStateException("Unexpected error in the daemon: " + response.readUTF());
+        }
+        if(length != END) {
+            throw new IOException(response.readUTF());
+        }
+    }
+
+    // Returns the failure of the task, null if it succeeded
+    private static IOException await(FutureTask<Void> task) {
+        try {
+            task.get();
+            return null;
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return new InterruptedIOException("Interrupted while sending to the daemon");
+        } catch (ExecutionException exc) {
+            return exc.getCause() instanceof IOException? (IOException) exc.getCause() : new IOException(exc.getCause());
+        }
+    }
+
+    // Port and token written by the daemon to its port file
+    private static final class Endpoint {
+        final int port;
+        final byte[] token;
+
+        private Endpoint(int port, byte[] token) {
+            this.port = port;
+            this.token = token;
+        }
+
+        // Null if there is no port file or it can not be read
+        static Endpoint read(Path portFile) {
+            try {
+                String[] fields = Files.readString(portFile, StandardCharsets.US_ASCII).trim().split(" ");
+                byte[] token = Base64.getDecoder().decode(fields[1]);
+                return token.length == TOKEN_LENGTH? new Endpoint(Integer.parseInt(fields[0]), token) : null;
+            } catch (IOException | RuntimeException exc) {
+                return null;
+            }
+        }
+
+        // Null if nothing listens on the port, the daemon was killed without removing its file
+        Socket connect() {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+                return socket;
+            } catch (IOException | IllegalArgumentException exc) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // Nothing was opened
+                }
+                return null;
+            }
+        }
+    }
+
+    // Frames what an algorithm writes into chunks, so an error can still be reported once part of the
+    // output has been sent
+    private static final class ChunkedOutputStream extends OutputStream {
+
+        private final DataOutputStream output;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int length = 0;
+
+        ChunkedOutputStream(DataOutputStream output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(int value) throws IOException {
+            if(length == buffer.length) writeChunk();
+            buffer[length++] = (byte) value;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) throws IOException {
+            while(count > 0) {
+                if(length == buffer.length) writeChunk();
+                int copied = Math.min(count, buffer.length - length);
+                System.arraycopy(bytes, offset, buffer, length, copied);
+                length += copied;
+                offset += copied;
+                count -= copied;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            output.flush();
+        }
+
+        private void writeChunk() throws IOException {
+            if(length == 0) return;
+            output.writeInt(length);
+            output.write(buffer, 0, length);
+            length = 0;
+        }
+
+        void end() throws IOException {
+            writeChunk();
+            output.writeInt(END);
+            output.flush();
+        }
+
+        // Drops the pending chunk, the client discards its output anyway
+        void fail(int error, String message) throws IOException {
+            length = 0;
+            output.writeInt(error);
+            output.writeUTF(message == null? "Unexpected error in the daemon." : message);
+            output.flush();
+        }
+    }
+}
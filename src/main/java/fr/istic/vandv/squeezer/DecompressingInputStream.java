@@ -0,0 +1,104 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
+import fr.istic.vandv.squeezer.algorithms.CompressionListener;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+// Reads an SQZ file holding a framed container, as written by CompressingOutputStream or by the
+// compress command with framing options. Blocks are read and decompressed one at a time, when the
+// previous one has been consumed. Their checksums, if any, are verified before they can be read.
+public class DecompressingInputStream extends FilterInputStream {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final FramedContainer.Header header;
+    private byte[] block = EMPTY;
+    private int position = 0;
+    private boolean finished = false;
+    private CompressionListener listener = CompressionListener.NONE;
+
+    public DecompressingInputStream(InputStream input) throws IOException {
+        super(input);
+        byte[] magic = in.readNBytes(Application.SQZ_HEADER.length);
+        if(!Arrays.equals(magic, Application.SQZ_HEADER)) {
+            throw new BadFileFormatException("Should start by SQZ.");
+        }
+        int opcode = in.read();
+        if(opcode != FramedContainer.OPCODE) {
+            throw new BadFileFormatException("Only framed containers can be read as a stream. Got opcode: " + opcode);
+        }
+        this.header = FramedContainer.readHeader(in);
+    }
+
+    // Receives the phases of the following blocks
+    public void setListener(CompressionListener listener) { this.listener = listener; }
+
+    @Override
+    public int read() throws IOException {
+        if(position == block.length && !nextBlock()) return -1;
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] values, int offset, int count) throws IOException {
+        if(offset < 0 || count < 0 || offset > values.length - count) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + count + ") out of bounds for length " + values.length);
+        }
+        if(count == 0) return 0;
+        if(position == block.length && !nextBlock()) return -1;
+        int chunk = Math.min(count, block.length - position);
+        System.arraycopy(block, position, values, offset, chunk);
+        position += chunk;
+        return chunk;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long skipped = 0;
+        while(skipped < count && (position < block.length || nextBlock())) {
+            int chunk = (int) Math.min(count - skipped, block.length - position);
+            position += chunk;
+            skipped += chunk;
+        }
+        return skipped;
+    }
+
+    // Bytes of the current block not read yet
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int limit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("Mark and reset are not supported.");
+    }
+
+    // Returns false after the last block
+    private boolean nextBlock() throws IOException {
+        if(finished) return false;
+        FramedContainer.Block next = FramedContainer.readBlock(in, header);
+        if(next == null) {
+            finished = true;
+            block = EMPTY;
+        }
+        else {
+            block = next.decompress(listener);
+        }
+        position = 0;
+        return !finished;
+    }
+}
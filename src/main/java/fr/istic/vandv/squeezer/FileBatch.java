@@ -0,0 +1,195 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.Application.ExitCodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Files processed by compress-all and decompress-all. Each file is known with the path of its
+// output relative to the output directory, so the layout of the given directories is kept.
+class FileBatch {
+
+    static final String EXTENSION = ".sqz";
+    static final String DECOMPRESSED_EXTENSION = ".out";
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    interface Task {
+        // Returns one of the ExitCodes
+        int run(File input, File output);
+    }
+
+    // Files in the order they were given, with their relative output path
+    private final Map<Path, Path> files = new LinkedHashMap<>();
+
+    private FileBatch() {
+    }
+
+    static FileBatch collect(List<String> paths, File manifest) throws IOException {
+        FileBatch batch = new FileBatch();
+        for(String path : paths) {
+            batch.add(path);
+        }
+        if(manifest != null) {
+            for(String line : Files.readAllLines(manifest.toPath())) {
+                String path = line.trim();
+                if(!path.isEmpty() && !path.startsWith("#")) {
+                    batch.add(path);
+                }
+            }
+        }
+        return batch;
+    }
+
+    static String compressedName(String name) {
+        return name + EXTENSION;
+    }
+
+    static String decompressedName(String name) {
+        return name.endsWith(EXTENSION) && name.length() > EXTENSION.length()
+                ? name.substring(0, name.length() - EXTENSION.length())
+                : name + DECOMPRESSED_EXTENSION;
+    }
+
+    boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    // Files in the order they were given
+    List<Path> inputs() {
+        return new ArrayList<>(files.keySet());
+    }
+
+    // Paths that do not exist are kept, so they are reported as missing inputs
+    private void add(String path) throws IOException {
+        int glob = firstGlobCharacter(path);
+        if(glob >= 0) {
+            addMatches(path, glob);
+            return;
+        }
+        Path file = Paths.get(path);
+        if(Files.isDirectory(file)) {
+            try(Stream<Path> walk = Files.walk(file)) {
+                for(Path child : walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                    files.putIfAbsent(child.normalize(), file.relativize(child));
+                }
+            }
+        }
+        else {
+            files.putIfAbsent(file.normalize(), file.getFileName());
+        }
+    }
+
+    // Walks the directory before the first glob character and keeps the files matching the pattern
+    private void addMatches(String pattern, int glob) throws IOException {
+        int separator = pattern.lastIndexOf(File.separatorChar, glob);
+        Path base = separator < 0? Paths.get("") : Paths.get(pattern.substring(0, separator + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(separator + 1));
+        Path root = base.toString().isEmpty()? Paths.get(".") : base;
+        if(!Files.isDirectory(root)) return;
+        try(Stream<Path> walk = Files.walk(root)) {
+            for(Path file : walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList())) {
+                Path relative = root.relativize(file);
+                if(matcher.matches(relative)) {
+                    files.putIfAbsent(base.resolve(relative).normalize(), relative);
+                }
+            }
+        }
+    }
+
+    private static int firstGlobCharacter(String path) {
+        for(int i = 0; i < path.length(); i++) {
+            if(GLOB_CHARACTERS.indexOf(path.charAt(i)) >= 0) return i;
+        }
+        return -1;
+    }
+
+    // Runs the task on every file and prints a summary. Returns the exit code of the first file that
+    // failed, in the order the files were given.
+    int run(File outputDirectory, UnaryOperator<String> naming, int threads, Task task) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<Integer>> results = new ArrayList<>(files.size());
+        List<Path[]> jobs = new ArrayList<>(files.size());
+        try {
+            for(Map.Entry<Path, Path> file : files.entrySet()) {
+                Path input = file.getKey();
+                Path relative = file.getValue();
+                Path name = relative.resolveSibling(naming.apply(relative.getFileName().toString()));
+                Path output = outputDirectory == null? input.resolveSibling(name.getFileName()) : outputDirectory.toPath().resolve(name);
+                jobs.add(new Path[] { input, output });
+                results.add(pool.submit(() -> process(input, output, task)));
+            }
+            int result = ExitCodes.SUCCESS;
+            int failed = 0;
+            long read = 0;
+            long written = 0;
+            for(int i = 0; i < results.size(); i++) {
+                int code = await(results.get(i));
+                Path[] job = jobs.get(i);
+                if(ExitCodes.isError(code)) {
+                    System.err.println("Failed with code " + code + ": " + job[0]);
+                    failed++;
+                    if(!ExitCodes.isError(result)) result = code;
+                }
+                else {
+                    read += job[0].toFile().length();
+                    written += job[1].toFile().length();
+                }
+            }
+            printSummary(results.size(), failed, read, written, System.nanoTime() - start);
+            return result;
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int process(Path input, Path output, Task task) {
+        try {
+            if(output.getParent() != null) {
+                Files.createDirectories(output.getParent());
+            }
+        } catch (IOException exc) {
+            System.err.println("Output directory can not be created: " + output.getParent());
+            return ExitCodes.CANT_CREATE;
+        }
+        return task.run(input.toFile(), output.toFile());
+    }
+
+    private static int await(Future<Integer> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return ExitCodes.SOFTWARE_ERROR;
+        } catch (ExecutionException exc) {
+            System.err.println("Unexcepted error: " + exc.getCause());
+            return ExitCodes.SOFTWARE_ERROR;
+        }
+    }
+
+    private static void printSummary(int count, int failed, long read, long written, long nanos) {
+        double seconds = nanos / 1e9;
+        double megabytes = read / (1024.0 * 1024.0);
+        System.out.printf(Locale.ROOT, "%d files processed, %d failed. Read %d bytes, wrote %d bytes in %.3f s (%.1f MB/s)%n",
+                count, failed, read, written, seconds, seconds > 0? megabytes / seconds : 0);
+    }
+}
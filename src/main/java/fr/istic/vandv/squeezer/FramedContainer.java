@@ -0,0 +1,343 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.algorithms.AlgorithmRegistry;
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
+import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
+import fr.istic.vandv.squeezer.algorithms.CompressionListener;
+import fr.istic.vandv.squeezer.io.ByteBufferInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+// Payload of SQZ files whose opcode is OPCODE. The input is split in blocks that are compressed
+// independently, so they can be compressed and decompressed in parallel:
+//
+// ┌─────────┐┌───────┐┌────────────┐┌─────────┐     ┌─────────┐┌──────┐
+// │ Version ││ Flags ││ Block size ││ Block 1 │ ... │ Block N ││ 0xFF │
+// └─────────┘└───────┘└────────────┘└─────────┘     └─────────┘└──────┘
+//
+// Each block is the opcode of the algorithm used to compress it, its uncompressed length, its
+// compressed length and the payload written by the algorithm. Blocks are written in input order.
+// With the CHECKSUMS flag, each block ends with the CRC32C of its uncompressed content.
+// With the INDEXED flag, a BlockIndex follows the end marker.
+public class FramedContainer {
+
+    public static final int OPCODE = 0x80;
+    public static final int VERSION = 1;
+    public static final int DEFAULT_BLOCK_SIZE = 4 << 20;
+
+    public static final int INDEXED = 1;
+    public static final int CHECKSUMS = 2;
+
+    static final int END_OF_BLOCKS = 0xFF;
+    static final int HEADER_LENGTH = 6;
+    static final int BLOCK_HEADER_LENGTH = 9;
+    static final int CHECKSUM_LENGTH = 4;
+
+    private final int blockSize;
+    private final int threads;
+    private boolean indexed = false;
+    private boolean checksums = false;
+    private CompressionListener listener = CompressionListener.NONE;
+
+    public FramedContainer(int blockSize, int threads) {
+        if(blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive. Got: " + blockSize);
+        }
+        if(threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive. Got: " + threads);
+        }
+        this.blockSize = blockSize;
+        this.threads = threads;
+    }
+
+    public FramedContainer() {
+        this(DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getBlockSize() { return blockSize; }
+
+    public int getThreads() { return threads; }
+
+    public boolean isIndexed() { return indexed; }
+
+    // Whether to write a trailing index for random access to the blocks
+    public void setIndexed(boolean indexed) { this.indexed = indexed; }
+
+    public boolean hasChecksums() { return checksums; }
+
+    // Whether to store the checksum of each block, verified when it is decompressed
+    public void setChecksums(boolean checksums) { this.checksums = checksums; }
+
+    // Receives the phases of every block, from the threads processing them
+    public void setListener(CompressionListener listener) { this.listener = listener; }
+
+    // Writes the payload, the SQZ header and opcode are written by the caller
+    public void compress(InputStream input, OutputStream output, CompressionAlgorithm algorithm) throws IOException {
+        compress(input, output, BlockSelector.of(algorithm));
+    }
+
+    // Each block is compressed with the algorithm the selector picks for its content
+    public void compress(InputStream input, OutputStream output, BlockSelector selector) throws IOException {
+        writeHeader((indexed? INDEXED : 0) | (checksums? CHECKSUMS : 0), blockSize, output);
+        BlockIndex index = new BlockIndex();
+        long position = HEADER_LENGTH;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // Blocks being compressed, at most two per thread so memory stays bounded
+            Deque<Future<byte[]>> pending = new ArrayDeque<>();
+            byte[] block;
+            while((block = input.readNBytes(blockSize)).length > 0) {
+                byte[] content = block;
+                pending.add(pool.submit(() -> compressBlock(content, content.length, selector, checksums, listener)));
+                if(pending.size() >= 2 * threads) {
+                    position = writeBlock(await(pending.remove()), position, index, output);
+                }
+            }
+            while(!pending.isEmpty()) {
+                position = writeBlock(await(pending.remove()), position, index, output);
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+        output.write(END_OF_BLOCKS);
+        if(indexed) {
+            index.write(position + 1, output);
+        }
+    }
+
+    // Returns the position following the block
+    private static long writeBlock(byte[] block, long position, BlockIndex index, OutputStream output) throws IOException {
+        output.write(block);
+        index.add(position, ByteBuffer.wrap(block, 1, 4).getInt());
+        return position + block.length;
+    }
+
+    static void writeHeader(int flags, int blockSize, OutputStream output) throws IOException {
+        output.write(VERSION);
+        output.write(flags);
+        writeInt(blockSize, output);
+    }
+
+    // Returns the block with its header, ready to be written
+    static byte[] compressBlock(byte[] content, int length, BlockSelector selector, boolean checksum, CompressionListener listener) throws IOException {
+        long allocated = listener == CompressionListener.NONE? -1 : CompressionStats.threadAllocatedBytes();
+        CompressionAlgorithm algorithm = selector.select(content, length, listener);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(length / 2 + 16);
+        algorithm.compress(new ByteBufferInputStream(ByteBuffer.wrap(content, 0, length)), payload, listener);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(payload.size() + BLOCK_HEADER_LENGTH + CHECKSUM_LENGTH);
+        result.write(algorithm.opcode());
+        writeInt(length, result);
+        writeInt(payload.size(), result);
+        payload.writeTo(result);
+        if(checksum) {
+            long start = System.nanoTime();
+            writeInt(checksum(content, length), result);
+            listener.lap(CompressionListener.CHECKSUM, start);
+        }
+        byte[] block = result.toByteArray();
+        report(listener, allocated, length, payload.size());
+        return block;
+    }
+
+    // Allocations are measured on the thread processing the block, since blocks run on pool threads
+    private static void report(CompressionListener listener, long allocatedBefore, int length, int compressedLength) {
+        if(allocatedBefore >= 0) {
+            listener.allocated(CompressionStats.threadAllocatedBytes() - allocatedBefore);
+        }
+        listener.block(length, compressedLength);
+    }
+
+    // Reads the payload, the SQZ header and opcode have been read by the caller
+    public void decompress(InputStream input, OutputStream output) throws IOException {
+        Header header = readHeader(input);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Deque<Future<byte[]>> pending = new ArrayDeque<>();
+            Block block;
+            while((block = readBlock(input, header)) != null) {
+                Block current = block;
+                pending.add(pool.submit(() -> current.decompress(listener)));
+                if(pending.size() >= 2 * threads) {
+                    output.write(await(pending.remove()));
+                }
+            }
+            while(!pending.isEmpty()) {
+                output.write(await(pending.remove()));
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    static Header readHeader(InputStream input) throws IOException {
+        int version = input.read();
+        if(version != VERSION) {
+            throw new BadFileFormatException("Unsupported container version: " + version);
+        }
+        int flags = input.read();
+        if(flags < 0 || (flags & ~(INDEXED | CHECKSUMS)) != 0) {
+            throw new BadFileFormatException("Unsupported container flags: " + flags);
+        }
+        int maxBlockLength = readInt(input);
+        if(maxBlockLength < 1) {
+            throw new BadFileFormatException("Invalid block size: " + maxBlockLength);
+        }
+        return new Header(flags, maxBlockLength);
+    }
+
+    static class Header {
+        final int flags;
+        final int blockSize;
+
+        Header(int flags, int blockSize) {
+            this.flags = flags;
+            this.blockSize = blockSize;
+        }
+
+        boolean has(int flag) { return (flags & flag) != 0; }
+    }
+
+    // Returns null after the last block
+    static Block readBlock(InputStream input, Header header) throws IOException {
+        int opcode = input.read();
+        if(opcode == END_OF_BLOCKS) return null;
+        if(opcode < 0) {
+            throw new BadFileFormatException("Missing end of blocks marker.");
+        }
+        CompressionAlgorithm algorithm = AlgorithmRegistry.getDefault().get(opcode);
+        if(algorithm == null) {
+            throw new BadFileFormatException("Wrong algorithm opcode in block: " + opcode);
+        }
+        int length = readInt(input);
+        int compressedLength = readInt(input);
+        if(length < 1 || length > header.blockSize || compressedLength < 0) {
+            throw new BadFileFormatException("Invalid block lengths: " + length + ", " + compressedLength);
+        }
+        byte[] payload = input.readNBytes(compressedLength);
+        if(payload.length < compressedLength) {
+            throw new BadFileFormatException("Unexpected end of block.");
+        }
+        Block block = new Block(payload, length, algorithm);
+        if(header.has(CHECKSUMS)) {
+            block.checksum = readInt(input);
+            block.checked = true;
+        }
+        return block;
+    }
+
+    static class Block {
+        final byte[] payload;
+        final int length;
+        final CompressionAlgorithm algorithm;
+        boolean checked = false;
+        int checksum;
+
+        Block(byte[] payload, int length, CompressionAlgorithm algorithm) {
+            this.payload = payload;
+            this.length = length;
+            this.algorithm = algorithm;
+        }
+
+        byte[] decompress(CompressionListener listener) throws IOException {
+            byte[] content = decompressBlock(payload, length, algorithm, listener);
+            if(checked) {
+                verify(content, checksum, listener);
+            }
+            return content;
+        }
+    }
+
+    static int checksum(byte[] content, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(content, 0, length);
+        return (int) crc.getValue();
+    }
+
+    static void verify(byte[] content, int expected, CompressionListener listener) throws BadFileFormatException {
+        long start = System.nanoTime();
+        int actual = checksum(content, content.length);
+        listener.lap(CompressionListener.CHECKSUM, start);
+        if(actual != expected) {
+            throw new BadFileFormatException(String.format("Block checksum mismatch: expected %08x, got %08x", expected, actual));
+        }
+    }
+
+    static byte[] decompressBlock(byte[] payload, int length, CompressionAlgorithm algorithm, CompressionListener listener) throws IOException {
+        long allocated = listener == CompressionListener.NONE? -1 : CompressionStats.threadAllocatedBytes();
+        byte[] content = new byte[length];
+        ByteBuffer result = ByteBuffer.wrap(content);
+        try {
+            algorithm.decompress(ByteBuffer.wrap(payload), result, listener);
+        } catch (BufferOverflowException exc) {
+            throw new BadFileFormatException("Block should decompress to " + length + " bytes, got more");
+        } catch (IndexOutOfBoundsException exc) {
+            // Decoders of other algorithms than the built-in ones may not check every field they read
+            throw new BadFileFormatException("Block can not be decompressed: " + exc);
+        }
+        if(result.hasRemaining()) {
+            throw new BadFileFormatException("Block should decompress to " + length + " bytes, got " + result.position());
+        }
+        report(listener, allocated, length, payload.length);
+        return content;
+    }
+
+    private static byte[] await(Future<byte[]> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing blocks", exc);
+        } catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            // Checked exceptions of tasks submitted to a ForkJoinPool come wrapped in RuntimeExceptions
+            for(Throwable wrapped = cause; wrapped != null; wrapped = wrapped.getCause()) {
+                if(wrapped instanceof IOException) {
+                    throw (IOException) wrapped;
+                }
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    static void writeInt(int value, OutputStream output) throws IOException {
+        output.write(value >>> 24);
+        output.write(value >>> 16);
+        output.write(value >>> 8);
+        output.write(value);
+    }
+
+    static int readInt(InputStream input) throws IOException {
+        byte[] bytes = input.readNBytes(4);
+        if(bytes.length < 4) {
+            throw new BadFileFormatException("Unexpected end of container.");
+        }
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    // Picks the algorithm of a block from its first length bytes, called concurrently from the
+    // threads compressing the blocks. The time spent is reported to the listener as SELECT.
+    public interface BlockSelector {
+
+        CompressionAlgorithm select(byte[] content, int length, CompressionListener listener);
+
+        static BlockSelector of(CompressionAlgorithm algorithm) {
+            return (content, length, listener) -> algorithm;
+        }
+    }
+}
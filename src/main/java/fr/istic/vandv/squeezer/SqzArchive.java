@@ -0,0 +1,129 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.algorithms.AlgorithmRegistry;
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
+import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
+import fr.istic.vandv.squeezer.algorithms.CompressionListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Random access to the content of an indexed framed container. Only the blocks overlapping the
+// requested range are read and decompressed.
+public class SqzArchive implements Closeable {
+
+    // SQZ header and opcode
+    private static final int CONTAINER_OFFSET = 4;
+
+    private final FileChannel channel;
+    private final BlockIndex index;
+    private final boolean checksums;
+
+    private SqzArchive(FileChannel channel, BlockIndex index, boolean checksums) {
+        this.channel = channel;
+        this.index = index;
+        this.checksums = checksums;
+    }
+
+    public static SqzArchive open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            int flags = readFlags(channel);
+            return new SqzArchive(channel, readIndex(channel), (flags & FramedContainer.CHECKSUMS) != 0);
+        } catch (IOException | RuntimeException exc) {
+            channel.close();
+            throw exc;
+        }
+    }
+
+    private static int readFlags(FileChannel channel) throws IOException {
+        ByteBuffer header = read(channel, 0, CONTAINER_OFFSET + FramedContainer.HEADER_LENGTH);
+        byte[] magic = new byte[Application.SQZ_HEADER.length];
+        header.get(magic);
+        if(!Arrays.equals(magic, Application.SQZ_HEADER) || (header.get() & 0xFF) != FramedContainer.OPCODE) {
+            throw new BadFileFormatException("Not a framed container.");
+        }
+        if(header.get() != FramedContainer.VERSION) {
+            throw new BadFileFormatException("Unsupported container version.");
+        }
+        int flags = header.get() & 0xFF;
+        if((flags & FramedContainer.INDEXED) == 0) {
+            throw new BadFileFormatException("The container has no block index.");
+        }
+        return flags;
+    }
+
+    private static BlockIndex readIndex(FileChannel channel) throws IOException {
+        long footer = channel.size() - BlockIndex.FOOTER_LENGTH;
+        long indexOffset = read(channel, footer, BlockIndex.FOOTER_LENGTH).getLong();
+        long indexLength = footer + BlockIndex.FOOTER_LENGTH - (CONTAINER_OFFSET + indexOffset);
+        if(indexOffset < FramedContainer.HEADER_LENGTH || indexLength < BlockIndex.length(0) || indexLength > Integer.MAX_VALUE) {
+            throw new BadFileFormatException("Invalid block index offset: " + indexOffset);
+        }
+        return BlockIndex.read(read(channel, CONTAINER_OFFSET + indexOffset, (int) indexLength));
+    }
+
+    // Uncompressed length of the content
+    public long size() { return index.totalLength(); }
+
+    public int blocks() { return index.count(); }
+
+    // Writes the given range of the uncompressed content. The range must be within the content.
+    public void decompress(long start, long length, OutputStream output) throws IOException {
+        if(start < 0 || length < 0 || start > size() - length) {
+            throw new IllegalArgumentException("Range " + start + ":" + length + " is out of the content of " + size() + " bytes");
+        }
+        long end = start + length;
+        for(int block = index.find(start); length > 0 && block < index.count() && index.uncompressedOffset(block) < end; block++) {
+            byte[] content = readBlock(block);
+            long blockStart = index.uncompressedOffset(block);
+            int from = (int) Math.max(0, start - blockStart);
+            int to = (int) Math.min(content.length, end - blockStart);
+            output.write(content, from, to - from);
+        }
+    }
+
+    private byte[] readBlock(int block) throws IOException {
+        long position = CONTAINER_OFFSET + index.blockOffset(block);
+        ByteBuffer header = read(channel, position, FramedContainer.BLOCK_HEADER_LENGTH);
+        int opcode = header.get() & 0xFF;
+        int length = header.getInt();
+        int compressedLength = header.getInt();
+        CompressionAlgorithm algorithm = AlgorithmRegistry.getDefault().get(opcode);
+        if(algorithm == null || length < 1 || compressedLength < 0) {
+            throw new BadFileFormatException("Invalid block at offset " + index.blockOffset(block));
+        }
+        ByteBuffer payload = read(channel, position + FramedContainer.BLOCK_HEADER_LENGTH, compressedLength);
+        byte[] content = FramedContainer.decompressBlock(payload.array(), length, algorithm, CompressionListener.NONE);
+        if(checksums) {
+            int checksum = read(channel, position + FramedContainer.BLOCK_HEADER_LENGTH + compressedLength, FramedContainer.CHECKSUM_LENGTH).getInt();
+            FramedContainer.verify(content, checksum, CompressionListener.NONE);
+        }
+        return content;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        if(position < 0) {
+            throw new BadFileFormatException("Truncated container.");
+        }
+        channel.position(position);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer) < 0) {
+                throw new BadFileFormatException("Unexpected end of container.");
+            }
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
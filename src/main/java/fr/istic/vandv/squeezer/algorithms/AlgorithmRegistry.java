@@ -0,0 +1,59 @@
+package fr.istic.vandv.squeezer.algorithms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+// Algorithms available by opcode and by name. The default registry holds the ones listed in
+// META-INF/services/fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm on the class path,
+// loaded once, so looking an algorithm up costs an array access.
+public final class AlgorithmRegistry {
+
+    private static final AlgorithmRegistry DEFAULT = load(AlgorithmRegistry.class.getClassLoader());
+
+    private final CompressionAlgorithm[] byOpcode = new CompressionAlgorithm[CompressionAlgorithm.MAX_OPCODE + 1];
+    private final Map<String, CompressionAlgorithm> byName = new HashMap<>();
+    private final List<CompressionAlgorithm> algorithms;
+
+    public AlgorithmRegistry(Iterable<? extends CompressionAlgorithm> algorithms) {
+        List<CompressionAlgorithm> all = new ArrayList<>();
+        for(CompressionAlgorithm algorithm : algorithms) {
+            int opcode = algorithm.opcode();
+            if(opcode < 0 || opcode > CompressionAlgorithm.MAX_OPCODE) {
+                throw new IllegalArgumentException("Opcode of " + algorithm.name() + " must be between 0 and " + CompressionAlgorithm.MAX_OPCODE + ". Got: " + opcode);
+            }
+            if(byOpcode[opcode] != null) {
+                throw new IllegalArgumentException("Opcode " + opcode + " is used by both " + byOpcode[opcode].name() + " and " + algorithm.name());
+            }
+            if(byName.putIfAbsent(algorithm.name(), algorithm) != null) {
+                throw new IllegalArgumentException("Several algorithms are named " + algorithm.name());
+            }
+            byOpcode[opcode] = algorithm;
+            all.add(algorithm);
+        }
+        all.sort((a, b) -> a.opcode() - b.opcode());
+        this.algorithms = Collections.unmodifiableList(all);
+    }
+
+    public static AlgorithmRegistry getDefault() { return DEFAULT; }
+
+    public static AlgorithmRegistry load(ClassLoader loader) {
+        return new AlgorithmRegistry(ServiceLoader.load(CompressionAlgorithm.class, loader));
+    }
+
+    // Returns null if no algorithm has this opcode
+    public CompressionAlgorithm get(int opcode) {
+        return opcode < 0 || opcode >= byOpcode.length? null : byOpcode[opcode];
+    }
+
+    // Returns null if no algorithm has this name
+    public CompressionAlgorithm get(String name) {
+        return byName.get(name);
+    }
+
+    // Sorted by opcode
+    public List<CompressionAlgorithm> algorithms() { return algorithms; }
+}
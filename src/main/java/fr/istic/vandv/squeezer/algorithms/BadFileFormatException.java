@@ -4,8 +4,16 @@ import java.io.IOException;
 
 public class BadFileFormatException extends IOException {
 
+    private final String detail;
+
     public BadFileFormatException(String message) {
         super("Wrong file format. " + message);
+        this.detail = message;
+    }
+
+    // The message without its prefix, to create the exception again elsewhere
+    public String getDetail() {
+        return detail;
     }
 
 }
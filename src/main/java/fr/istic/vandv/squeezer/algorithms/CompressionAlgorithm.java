@@ -1,12 +1,65 @@
 package fr.istic.vandv.squeezer.algorithms;
 
+import fr.istic.vandv.squeezer.io.ByteBufferInputStream;
+import fr.istic.vandv.squeezer.io.ByteBufferOutputStream;
+import fr.istic.vandv.squeezer.io.ByteBuffers;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+// Implementations are found by AlgorithmRegistry through java.util.ServiceLoader. They must be
+// stateless and safe to share between threads: one instance serves every call, concurrent ones included.
 public interface CompressionAlgorithm {
 
-    void compress(InputStream input, OutputStream output) throws IOException;
+    // Written before the payload of SQZ files, between 0 and MAX_OPCODE
+    int MAX_OPCODE = 0x7F;
+
+    int opcode();
+
+    // Unique name, as given to the --use option
+    String name();
+
+    default String description() { return name(); }
+
+    default void compress(InputStream input, OutputStream output) throws IOException {
+        compress(input, output, CompressionListener.NONE);
+    }
+
+    default void decompress(InputStream input, OutputStream output) throws IOException {
+        decompress(input, output, CompressionListener.NONE);
+    }
+
+    // The listener receives the time spent in each phase of this call
+    void compress(InputStream input, OutputStream output, CompressionListener listener) throws IOException;
+
+    void decompress(InputStream input, OutputStream output, CompressionListener listener) throws IOException;
+
+    // Largest payload compress may write for an input of the given length
+    long maxCompressedLength(long length);
+
+    default void compress(ByteBuffer source, ByteBuffer destination) throws IOException {
+        compress(source, destination, CompressionListener.NONE);
+    }
+
+    default void decompress(ByteBuffer source, ByteBuffer destination) throws IOException {
+        decompress(source, destination, CompressionListener.NONE);
+    }
+
+    // Compresses the remaining bytes of the source into the destination from its position, moving both
+    // positions past the bytes read and written. Buffers may be direct or mapped, by default they are
+    // read and written a chunk at a time through the stream methods. Throws BufferOverflowException if
+    // the destination has less room than needed, maxCompressedLength of the source is always enough.
+    // Both positions are then left unchanged, implementations run through ByteBuffers.restoreOnOverflow.
+    default void compress(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        ByteBuffers.restoreOnOverflow(source, destination,
+                () -> compress(new ByteBufferInputStream(source), new ByteBufferOutputStream(destination), listener));
+    }
 
-    void decompress(InputStream input, OutputStream output) throws IOException;
+    // The remaining bytes of the source must be a whole payload
+    default void decompress(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        ByteBuffers.restoreOnOverflow(source, destination,
+                () -> decompress(new ByteBufferInputStream(source), new ByteBufferOutputStream(destination), listener));
+    }
 }
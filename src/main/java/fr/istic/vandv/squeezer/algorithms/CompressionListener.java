@@ -0,0 +1,35 @@
+package fr.istic.vandv.squeezer.algorithms;
+
+// Receives measurements of compression runs. Blocks of a framed container are processed on several
+// threads, so implementations must be thread safe when used with one.
+public interface CompressionListener {
+
+    CompressionListener NONE = new CompressionListener() {};
+
+    // Phases reported by the algorithms and containers, a phase may be reported several times in a run
+    String READ = "read";
+    String WRITE = "write";
+    String FREQUENCIES = "frequencies";
+    String TREE = "tree";
+    String ENCODE = "encode";
+    String DECODE = "decode";
+    // Choice of the algorithm of a block compressed with AUTO
+    String SELECT = "select";
+    // Computation of the checksums of a framed container
+    String CHECKSUM = "checksum";
+
+    default void phase(String name, long nanos) {}
+
+    // Bytes allocated by a thread while processing part of the content
+    default void allocated(long bytes) {}
+
+    // A block of a framed container was processed
+    default void block(int uncompressedLength, int compressedLength) {}
+
+    // Reports the time elapsed since the given instant in the given phase, returns the current instant
+    default long lap(String name, long since) {
+        long now = System.nanoTime();
+        phase(name, now - since);
+        return now;
+    }
+}
@@ -0,0 +1,27 @@
+package fr.istic.vandv.squeezer.algorithms;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+// Scratch state of the calls of an algorithm: buffers, tables and dictionaries taken by a call and
+// given back once it is done. Contexts are prepared by the call taking them, so they can be given back
+// in any state. Only as many idle contexts as processors are kept, extra ones are left to the collector.
+final class ContextPool<T> {
+
+    private final Supplier<T> factory;
+    private final ArrayBlockingQueue<T> idle;
+
+    ContextPool(Supplier<T> factory) {
+        this.factory = factory;
+        this.idle = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors());
+    }
+
+    T acquire() {
+        T context = idle.poll();
+        return context == null? factory.get() : context;
+    }
+
+    void release(T context) {
+        idle.offer(context);
+    }
+}
@@ -1,156 +1,590 @@
 package fr.istic.vandv.squeezer.algorithms;
 
-import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitString;
+import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitStringReader;
 import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitStringWriter;
+import fr.istic.vandv.squeezer.io.ByteBufferInputStream;
+import fr.istic.vandv.squeezer.io.ByteBufferOutputStream;
+import fr.istic.vandv.squeezer.io.ByteBuffers;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class HuffmanEncoding implements CompressionAlgorithm {
+
+    public static final int OPCODE = 1;
+
+    // Codes up to this length are decoded with a single probe of the lookup table
+    public static final int TABLE_BITS = 11;
+    // Longest code the decoder can peek at once from its 64 bit window
+    public static final int MAX_CODE_LENGTH = 57;
+    // Codes must be long enough for all 256 symbols
+    public static final int MIN_CODE_LENGTH = 8;
+    public static final int DEFAULT_MAX_CODE_LENGTH = 15;
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    // Layout of a lookup table entry: first symbol, second symbol, bits of the first symbol,
+    // bits of both symbols and number of symbols decoded (0 when the code is longer than TABLE_BITS)
+    private static final int SECOND_SYMBOL_SHIFT = 8;
+    private static final int FIRST_LENGTH_SHIFT = 16;
+    private static final int TOTAL_LENGTH_SHIFT = 21;
+    private static final int SYMBOLS_SHIFT = 26;
+    private static final int LENGTH_MASK = 0x1F;
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    // Symbol count, payload length and a table of 256 symbols with their code lengths
+    private static final int MAX_BLOCK_OVERHEAD = 4 + 4 + 1 + 2 * 256;
+
+    // Nothing is set for decoding, so every instance shares the decoding tables
+    private static final ContextPool<Decoding> DECODINGS = new ContextPool<>(Decoding::new);
+
+    private final int blockSize;
+    private final int maxCodeLength;
+    private final ContextPool<Encoding> encodings;
+
+    public HuffmanEncoding() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    public HuffmanEncoding(int blockSize) {
+        this(blockSize, DEFAULT_MAX_CODE_LENGTH);
+    }
+
+    public HuffmanEncoding(int blockSize, int maxCodeLength) {
+        if(blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive. Got: " + blockSize);
+        }
+        if(maxCodeLength < MIN_CODE_LENGTH || maxCodeLength > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Maximum code length must be between " + MIN_CODE_LENGTH + " and " + MAX_CODE_LENGTH + ". Got: " + maxCodeLength);
+        }
+        this.blockSize = blockSize;
+        this.maxCodeLength = maxCodeLength;
+        this.encodings = new ContextPool<>(() -> new Encoding(blockSize, maxCodeLength));
+    }
+
+    public int getBlockSize() { return blockSize; }
+
+    public int getMaxCodeLength() { return maxCodeLength; }
+
+    @Override
+    public int opcode() { return OPCODE; }
+
     @Override
-    public void compress(InputStream input, OutputStream output) throws IOException {
-        byte[] content = input.readAllBytes();
-        BitString[] table = computeTable(content);
-        writeTable(table, output);
-        writeContent(table, content, output);
+    public String name() { return "HUFFMAN"; }
+
+    @Override
+    public String description() { return "Huffman compression algorithm"; }
+
+    // The payload of each block is rounded up to whole bytes
+    @Override
+    public long maxCompressedLength(long length) {
+        long blocks = (length + blockSize - 1) / blockSize;
+        return blocks * (MAX_BLOCK_OVERHEAD + 1) + length * maxCodeLength / 8;
     }
 
-    private void writeContent(BitString[] table, byte[] content, OutputStream output) throws IOException {
-        BitStringWriter writer = new BitStringWriter(output);
-        for(byte value : content) {
-            BitString toWrite = table[Byte.toUnsignedInt(value)];
-            writer.write(toWrite);
+    // Each block is written as: number of symbols, number of payload bytes, code table and payload
+    @Override
+    public void compress(InputStream input, OutputStream output, CompressionListener listener) throws IOException {
+        Encoding encoding = encodings.acquire();
+        try {
+            encode(input, output, encoding, listener);
+        }
+        finally {
+            encodings.release(encoding);
         }
-        int extraBits = writer.flush();
-        int padding = extraBits == 0? 0: 8 - extraBits;
-        output.write((byte)padding);
     }
 
-    private int[] computeFrequencies(byte[] content) {
-        int[] frequencies = new int[256];
-        for (byte value : content) {
-            frequencies[Byte.toUnsignedInt(value)]++;
+    private void encode(InputStream input, OutputStream output, Encoding encoding, CompressionListener listener) throws IOException {
+        byte[] block = encoding.block;
+        long[] frequencies = encoding.frequencies;
+        int[] lengths = encoding.lengths;
+        ByteArrayOutputStream payload = encoding.payload;
+        int read;
+        long time = System.nanoTime();
+        while((read = input.readNBytes(block, 0, blockSize)) > 0) {
+            time = listener.lap(CompressionListener.READ, time);
+            computeFrequencies(block, read, frequencies);
+            time = listener.lap(CompressionListener.FREQUENCIES, time);
+            encoding.codeLengths.compute(frequencies, lengths);
+            time = listener.lap(CompressionListener.TREE, time);
+            payload.reset();
+            canonicalCodes(lengths, encoding.codes);
+            writeContent(encoding.codes, lengths, block, read, new BitStringWriter(payload, encoding.buffer));
+            time = listener.lap(CompressionListener.ENCODE, time);
+            writeInt(read, output);
+            writeInt(payload.size(), output);
+            writeTable(lengths, output);
+            payload.writeTo(output);
+            time = listener.lap(CompressionListener.WRITE, time);
         }
-        return frequencies;
+        listener.lap(CompressionListener.READ, time);
     }
 
-    private BitString[] computeTable(byte[] content) {
-        int[] frequencies = computeFrequencies(content);
-        Node tree = buildTree(frequencies);
-        return buildTable(tree);
+    // Blocks are read from the source where they are and their payload is written straight into the
+    // destination, its length being filled in once known
+    @Override
+    public void compress(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        ByteBuffers.restoreOnOverflow(source, destination, () -> compressBuffers(source, destination, listener));
     }
 
-    private Node buildTree(int[] frequencies) {
-        PriorityQueue<Node> heap = new PriorityQueue<>(255,  (a, b) -> a.weight - b.weight);
-        for (int i = 0; i < frequencies.length; i++) {
-            if(frequencies[i] == 0) continue;
-            heap.add(new Node(i, frequencies[i]));
+    private void compressBuffers(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        Encoding encoding = encodings.acquire();
+        try {
+            OutputStream output = new ByteBufferOutputStream(destination);
+            long time = System.nanoTime();
+            while(source.hasRemaining()) {
+                int from = source.position();
+                int length = Math.min(blockSize, source.remaining());
+                computeFrequencies(source, from, length, encoding.frequencies);
+                time = listener.lap(CompressionListener.FREQUENCIES, time);
+                encoding.codeLengths.compute(encoding.frequencies, encoding.lengths);
+                time = listener.lap(CompressionListener.TREE, time);
+                canonicalCodes(encoding.lengths, encoding.codes);
+                writeInt(length, output);
+                int payloadLengthPosition = destination.position();
+                writeInt(0, output);
+                writeTable(encoding.lengths, output);
+                int payloadStart = destination.position();
+                writeContent(encoding.codes, encoding.lengths, source, from, length, new BitStringWriter(output, encoding.buffer));
+                putInt(destination.position() - payloadStart, destination, payloadLengthPosition);
+                source.position(from + length);
+                time = listener.lap(CompressionListener.ENCODE, time);
+            }
         }
-        while (heap.size() > 1) {
-            heap.add(new Node(heap.remove(), heap.remove()));
+        finally {
+            encodings.release(encoding);
         }
-        return heap.remove();
     }
 
-    private BitString[] buildTable(Node root) {
-        BitString[] table = new BitString[256];
-        if(root.isLeaf()) {
-            table[root.value] = new BitString().appendOne();
+    private static void writeContent(long[] codes, int[] lengths, byte[] content, int length, BitStringWriter writer) throws IOException {
+        for(int i = 0; i < length; i++) {
+            int symbol = Byte.toUnsignedInt(content[i]);
+            writer.write(codes[symbol], lengths[symbol]);
         }
-        else {
-            fillTable(table, root, new BitString());
+        writer.flush();
+    }
+
+    private static void writeContent(long[] codes, int[] lengths, ByteBuffer content, int from, int length, BitStringWriter writer) throws IOException {
+        for(int i = from; i < from + length; i++) {
+            int symbol = Byte.toUnsignedInt(content.get(i));
+            writer.write(codes[symbol], lengths[symbol]);
         }
-        return table;
+        writer.flush();
+    }
+
+    private static void putInt(int value, ByteBuffer buffer, int index) {
+        buffer.put(index, (byte) (value >>> 24));
+        buffer.put(index + 1, (byte) (value >>> 16));
+        buffer.put(index + 2, (byte) (value >>> 8));
+        buffer.put(index + 3, (byte) value);
+    }
+
+    private static void writeInt(int value, OutputStream output) throws IOException {
+        output.write(value >>> 24);
+        output.write(value >>> 16);
+        output.write(value >>> 8);
+        output.write(value);
     }
 
-    private void fillTable(BitString[] table, Node node, BitString current) {
-        if(node.isLeaf()) {
-            table[node.value] = current;
-            return;
+    private static void computeFrequencies(byte[] content, int length, long[] frequencies) {
+        Arrays.fill(frequencies, 0);
+        for (int i = 0; i < length; i++) {
+            frequencies[Byte.toUnsignedInt(content[i])]++;
         }
-        fillTable(table, node.left, current.appendZero());
-        fillTable(table, node.left, current.appendOne());
     }
 
-    public void writeTable(BitString[] table, OutputStream output) throws IOException {
-        long entries = Arrays.stream(table).filter(Objects::nonNull).count();
-        output.write((byte)entries);
-        for(int i = 0; i < table.length; i++) {
-            if(table[i] == null) continue;
-            output.write((byte)i);
-            output.write((byte)table[i].length()); // Expecting no string will be larger than 255
-            output.write(table[i].toByteArray());
+    private static void computeFrequencies(ByteBuffer content, int from, int length, long[] frequencies) {
+        Arrays.fill(frequencies, 0);
+        for (int i = from; i < from + length; i++) {
+            frequencies[Byte.toUnsignedInt(content.get(i))]++;
         }
     }
 
-    @Override
-    public void decompress(InputStream input, OutputStream output) throws IOException {
-        Map<BitString, Byte> str2byte = getMapping(input);
-        BitString bt = new BitString();
-        byte[] content = input.readAllBytes();
-        int padding = content[content.length-1];
-        for(int i = 0; i < content.length - 1; i++) {
-            int bits = (i < content.length - 2)?8: 8 - padding;
-            for (int b = 0; b < bits; b++) {
-                if((content[i] & 128) == 0) {
-                    bt = bt.appendZero();
+    // Optimal code lengths no longer than a maximum, found with package-merge. One list of items is
+    // built for each length, from the longest: the symbols merged by weight with the packages made of
+    // pairs of consecutive items of the previous list. The 2n - 2 lightest items of the list for length
+    // 1 are selected, and the packages among the items selected in a list select as many pairs of the
+    // lightest items of the list they come from. Each symbol is as long as the number of times it is
+    // selected. Since both symbols and packages are merged in order, the selected items of a list are
+    // always its first ones, so only whether each item is a symbol needs to be kept.
+    static class CodeLengths {
+
+        // Each list holds at most n symbols and n - 1 packages
+        private static final int MAX_ITEMS = 2 * 256;
+
+        private final int maxLength;
+        // Symbols with a frequency, sorted by weight and then by value
+        private final int[] symbols = new int[256];
+        private final long[] weights = new long[256];
+        private long[] previous = new long[MAX_ITEMS];
+        private long[] current = new long[MAX_ITEMS];
+        // For each length, whether each item of its list is a symbol rather than a package
+        private final boolean[][] leaves;
+
+        CodeLengths(int maxLength) {
+            this.maxLength = maxLength;
+            leaves = new boolean[maxLength][MAX_ITEMS];
+        }
+
+        void compute(long[] frequencies, int[] lengths) {
+            Arrays.fill(lengths, 0);
+            int count = sortSymbols(frequencies);
+            if(count == 1) {
+                lengths[symbols[0]] = 1;
+                return;
+            }
+            System.arraycopy(weights, 0, previous, 0, count);
+            Arrays.fill(leaves[maxLength - 1], 0, count, true);
+            int items = count;
+            for(int length = maxLength - 1; length >= 1; length--) {
+                boolean[] isLeaf = leaves[length - 1];
+                int packages = items / 2;
+                int symbol = 0;
+                int pack = 0;
+                items = 0;
+                while(symbol < count || pack < packages) {
+                    long packageWeight = pack < packages? previous[2 * pack] + previous[2 * pack + 1] : Long.MAX_VALUE;
+                    if(symbol < count && weights[symbol] <= packageWeight) {
+                        current[items] = weights[symbol++];
+                        isLeaf[items++] = true;
+                    }
+                    else {
+                        current[items] = packageWeight;
+                        isLeaf[items++] = false;
+                        pack++;
+                    }
                 }
-                else{
-                    bt = bt.appendOne();
+                long[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+            int selected = 2 * count - 2;
+            for(int length = 1; length <= maxLength && selected > 0; length++) {
+                boolean[] isLeaf = leaves[length - 1];
+                int selectedSymbols = 0;
+                for(int i = 0; i < selected; i++) {
+                    if(isLeaf[i]) lengths[symbols[selectedSymbols++]]++;
                 }
-                if (str2byte.containsKey(bt)) {
-                    output.write(str2byte.get(bt));
-                    bt = new BitString();
+                selected = 2 * (selected - selectedSymbols);
+            }
+        }
+
+        // Returns the number of symbols with a frequency
+        private int sortSymbols(long[] frequencies) {
+            int count = 0;
+            for(int symbol = 0; symbol < frequencies.length; symbol++) {
+                long weight = frequencies[symbol];
+                if(weight == 0) continue;
+                // Insertion after the symbols of the same weight keeps them sorted by value
+                int position = count++;
+                while(position > 0 && weights[position - 1] > weight) {
+                    weights[position] = weights[position - 1];
+                    symbols[position] = symbols[position - 1];
+                    position--;
                 }
-                content[i] <<= 1;
+                weights[position] = weight;
+                symbols[position] = symbol;
+            }
+            return count;
+        }
+    }
+
+    // Canonical codes: symbols sorted by code length and then by value get consecutive codes
+    private static void canonicalCodes(int[] lengths, long[] codes) {
+        int maxLength = 0;
+        for(int length : lengths) {
+            maxLength = Math.max(maxLength, length);
+        }
+        long code = 0;
+        int previousLength = 0;
+        for(int length = 1; length <= maxLength; length++) {
+            for(int symbol = 0; symbol < lengths.length; symbol++) {
+                if(lengths[symbol] != length) continue;
+                code <<= length - previousLength;
+                previousLength = length;
+                codes[symbol] = code++;
+            }
+        }
+    }
+
+    // Fills result with the symbols having a code, sorted by code length and then by value. Returns their number.
+    private static int sortedSymbols(int[] lengths, int maxLength, int[] result) {
+        int position = 0;
+        for(int length = 1; length <= maxLength; length++) {
+            for(int symbol = 0; symbol < lengths.length; symbol++) {
+                if(lengths[symbol] == length) result[position++] = symbol;
             }
         }
+        return position;
+    }
+
+    public void writeTable(int[] lengths, OutputStream output) throws IOException {
+        long entries = Arrays.stream(lengths).filter(length -> length > 0).count();
+        output.write((byte)(entries - 1)); // There is at least one entry, so all 256 fit in a byte
+        for(int i = 0; i < lengths.length; i++) {
+            if(lengths[i] == 0) continue;
+            output.write((byte)i);
+            output.write((byte)lengths[i]);
+        }
+    }
+
+    @Override
+    public void decompress(InputStream input, OutputStream output, CompressionListener listener) throws IOException {
+        Decoding decoding = DECODINGS.acquire();
+        try {
+            decode(input, null, output, decoding, listener);
+        }
+        finally {
+            DECODINGS.release(decoding);
+        }
     }
 
-    private Map<BitString, Byte> getMapping(InputStream input) throws IOException {
-        BitString[] table = readTable(input);
-        Map<BitString, Byte> str2byte = new HashMap<>();
+    // Payloads of heap buffers are decoded where they are
+    @Override
+    public void decompress(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        ByteBuffers.restoreOnOverflow(source, destination, () -> decompressBuffers(source, destination, listener));
+    }
 
-        for(int i = 0; i < table.length; i++) {
-            if(table[i] == null) continue;
-            str2byte.put(table[i], (byte)i);
+    private void decompressBuffers(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        Decoding decoding = DECODINGS.acquire();
+        try {
+            decode(new ByteBufferInputStream(source), source.hasArray()? source : null, new ByteBufferOutputStream(destination), decoding, listener);
+        }
+        finally {
+            DECODINGS.release(decoding);
+        }
+    }
+
+    // The input reads from the given heap buffer, if any, whose payloads are then decoded in place
+    private static void decode(InputStream input, ByteBuffer source, OutputStream output, Decoding decoding, CompressionListener listener) throws IOException {
+        Decoder decoder = decoding.decoder;
+        int[] lengths = decoding.lengths;
+        int first;
+        long time = System.nanoTime();
+        while((first = input.read()) >= 0) {
+            int symbols = readInt(first, input);
+            int payloadLength = readInt(input.read(), input);
+            if(symbols <= 0 || payloadLength < 0 || payloadLength > symbols * (long) MAX_CODE_LENGTH / 8 + 1) {
+                throw new BadFileFormatException("Invalid Huffman block header.");
+            }
+            if(!readTable(input, lengths)) {
+                throw new BadFileFormatException("Missing Huffman table.");
+            }
+            byte[] payload;
+            int offset = 0;
+            if(source != null && source.remaining() >= payloadLength) {
+                payload = source.array();
+                offset = source.arrayOffset() + source.position();
+                source.position(source.position() + payloadLength);
+            }
+            else {
+                if(decoding.payload.length < payloadLength) {
+                    decoding.payload = new byte[payloadLength];
+                }
+                payload = decoding.payload;
+                if(input.readNBytes(payload, 0, payloadLength) < payloadLength) {
+                    throw new BadFileFormatException("Unexpected end of a Huffman block.");
+                }
+            }
+            time = listener.lap(CompressionListener.READ, time);
+            decoder.reset(lengths);
+            time = listener.lap(CompressionListener.TREE, time);
+            decoder.decode(payload, offset, payloadLength, symbols, decoding.buffer, output);
+            time = listener.lap(CompressionListener.DECODE, time);
+        }
+        listener.lap(CompressionListener.READ, time);
+    }
+
+    private static int readInt(int first, InputStream input) throws IOException {
+        int result = first;
+        for(int i = 0; i < 3; i++) {
+            int next = input.read();
+            if(next < 0 || result < 0) {
+                throw new BadFileFormatException("Unexpected end of a Huffman block header.");
+            }
+            result = (result << 8) | next;
         }
-        return str2byte;
+        return result;
     }
 
-    private BitString[] readTable(InputStream input) throws IOException {
-        BitString[] table = new BitString[256];
+    // Returns false if the stream ends before the table
+    private static boolean readTable(InputStream input, int[] lengths) throws IOException {
         int entries = input.read();
-        for(int i = 0; i < entries; i++) {
+        if(entries < 0) return false;
+        Arrays.fill(lengths, 0);
+        for(int i = 0; i <= entries; i++) {
             int element = input.read();
             int bits = input.read();
-            byte[] str = input.readNBytes(BitString.requiredLenghtForBits(bits));
-            table[element] = new BitString(str, bits);
+            if(element < 0 || bits < 0) {
+                throw new BadFileFormatException("Unexpected end of the Huffman table.");
+            }
+            if(bits == 0 || bits > MAX_CODE_LENGTH) {
+                throw new BadFileFormatException("Unsupported Huffman code length: " + bits);
+            }
+            if(lengths[element] != 0) {
+                throw new BadFileFormatException("Huffman table gives symbol " + element + " twice.");
+            }
+            lengths[element] = bits;
+        }
+        if(!isPrefixCode(lengths)) {
+            throw new BadFileFormatException("Huffman code lengths do not form a prefix code.");
         }
-        return table;
+        return true;
     }
 
-    protected static class Node {
+    // Kraft inequality: codes of each length may only use what the shorter ones left, counted in
+    // codes of that length so the sum never needs more than MAX_CODE_LENGTH bits
+    private static boolean isPrefixCode(int[] lengths) {
+        int[] count = new int[MAX_CODE_LENGTH + 1];
+        for(int length : lengths) {
+            count[length]++;
+        }
+        long available = 1;
+        for(int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            available = 2 * available - count[length];
+            if(available < 0) return false;
+        }
+        return true;
+    }
 
-        int value;
-        int weight;
+    // Table driven decoder for canonical codes. Codes no longer than TABLE_BITS are resolved, two
+    // at a time when both fit, with a single probe. Longer codes are resolved with the canonical
+    // first code of each length. Tables are sized for any code, so a decoder is reset for each block.
+    private static class Decoder {
 
-        Node right;
-        Node left;
+        private final int[] table = new int[1 << TABLE_BITS];
+        // Entries for a single symbol, the table is built from them
+        private final int[] single = new int[1 << TABLE_BITS];
+        private final int[] symbols = new int[256];
+        private final long[] codes = new long[256];
+        private final long[] firstCode = new long[MAX_CODE_LENGTH + 1];
+        private final int[] firstIndex = new int[MAX_CODE_LENGTH + 1];
+        private final int[] count = new int[MAX_CODE_LENGTH + 1];
+        private int tableBits;
+        private int maxLength;
 
-        public boolean isLeaf() { return right == null && left == null; }
+        void reset(int[] lengths) {
+            maxLength = 0;
+            Arrays.fill(count, 0);
+            for(int length : lengths) {
+                if(length == 0) continue;
+                count[length]++;
+                maxLength = Math.max(maxLength, length);
+            }
+            tableBits = Math.min(TABLE_BITS, maxLength);
+            sortedSymbols(lengths, maxLength, symbols);
+            long code = 0;
+            int index = 0;
+            for(int length = 1; length <= maxLength; length++) {
+                code = (code + count[length - 1]) << 1;
+                firstCode[length] = code;
+                firstIndex[length] = index;
+                index += count[length];
+            }
+            buildTable(lengths);
+        }
 
-        public Node(int value, int weight) {
-            this.value = value;
-            this.weight = weight;
+        private void buildTable(int[] lengths) {
+            canonicalCodes(lengths, codes);
+            int size = 1 << tableBits;
+            Arrays.fill(single, 0, size, 0);
+            for(int symbol = 0; symbol < lengths.length; symbol++) {
+                int length = lengths[symbol];
+                if(length == 0 || length > tableBits) continue;
+                int start = (int)(codes[symbol] << (tableBits - length));
+                int entry = symbol | length << FIRST_LENGTH_SHIFT | length << TOTAL_LENGTH_SHIFT | 1 << SYMBOLS_SHIFT;
+                Arrays.fill(single, start, start + (1 << (tableBits - length)), entry);
+            }
+            for(int index = 0; index < size; index++) {
+                int entry = single[index];
+                table[index] = entry;
+                if(entry == 0) continue;
+                int first = (entry >>> FIRST_LENGTH_SHIFT) & LENGTH_MASK;
+                int second = single[(index << first) & (size - 1)];
+                int secondLength = (second >>> FIRST_LENGTH_SHIFT) & LENGTH_MASK;
+                if(second != 0 && first + secondLength <= tableBits) {
+                    table[index] = (entry & ~(LENGTH_MASK << TOTAL_LENGTH_SHIFT) & ~(3 << SYMBOLS_SHIFT))
+                            | (second & 0xFF) << SECOND_SYMBOL_SHIFT
+                            | (first + secondLength) << TOTAL_LENGTH_SHIFT
+                            | 2 << SYMBOLS_SHIFT;
+                }
+            }
         }
 
-        public Node(Node left, Node right) {
-            this.left = left;
-            this.right = right;
-            this.weight = left.weight + right.weight;
+        void decode(byte[] content, int offset, int length, int symbolCount, byte[] buffer, OutputStream output) throws IOException {
+            BitStringReader reader = new BitStringReader(content, offset, length);
+            int produced = 0;
+            int remaining = symbolCount;
+            while(remaining > 0) {
+                if(produced > buffer.length - 2) {
+                    output.write(buffer, 0, produced);
+                    produced = 0;
+                }
+                long window = reader.peek(maxLength);
+                int entry = table[(int)(window >>> (maxLength - tableBits))];
+                int consumed;
+                if(entry != 0) {
+                    buffer[produced++] = (byte) entry;
+                    if(remaining > 1 && (entry >>> SYMBOLS_SHIFT) == 2) {
+                        buffer[produced++] = (byte) (entry >>> SECOND_SYMBOL_SHIFT);
+                        consumed = (entry >>> TOTAL_LENGTH_SHIFT) & LENGTH_MASK;
+                        remaining -= 2;
+                    } else {
+                        consumed = (entry >>> FIRST_LENGTH_SHIFT) & LENGTH_MASK;
+                        remaining--;
+                    }
+                } else {
+                    consumed = decodeLong(window);
+                    buffer[produced++] = (byte) symbols[consumed >>> 8];
+                    consumed &= 0xFF;
+                    remaining--;
+                }
+                // Past the end the reader pads with zeros, which may still match a code
+                if(consumed > reader.available()) {
+                    throw new BadFileFormatException("Huffman block ends in the middle of a code.");
+                }
+                reader.consume(consumed);
+            }
+            output.write(buffer, 0, produced);
+        }
+
+        // Returns the index of the decoded symbol in the sorted symbols array, shifted 8 bits, and the code length
+        private int decodeLong(long window) throws BadFileFormatException {
+            for(int length = tableBits + 1; length <= maxLength; length++) {
+                long offset = (window >>> (maxLength - length)) - firstCode[length];
+                if(offset >= 0 && offset < count[length]) {
+                    return (firstIndex[length] + (int)offset) << 8 | length;
+                }
+            }
+            throw new BadFileFormatException("Invalid Huffman code.");
         }
     }
+
+    private static class Encoding {
+        final byte[] block;
+        final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+        final long[] frequencies = new long[256];
+        final int[] lengths = new int[256];
+        final long[] codes = new long[256];
+        final CodeLengths codeLengths;
+
+        Encoding(int blockSize, int maxCodeLength) {
+            block = new byte[blockSize];
+            codeLengths = new CodeLengths(maxCodeLength);
+        }
+    }
+
+    private static class Decoding {
+        final Decoder decoder = new Decoder();
+        final int[] lengths = new int[256];
+        final byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+        // Grows to hold the largest payload decoded so far
+        byte[] payload = new byte[0];
+    }
 }
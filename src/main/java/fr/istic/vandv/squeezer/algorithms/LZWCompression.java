@@ -1,88 +1,267 @@
 package fr.istic.vandv.squeezer.algorithms;
 
-import fr.istic.vandv.squeezer.algorithms.bytestrings.ByteString;
-import fr.istic.vandv.squeezer.algorithms.bytestrings.TrieDictionary;
+import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitStringReader;
+import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitStringWriter;
+import fr.istic.vandv.squeezer.algorithms.bytestrings.HashDictionary;
+import fr.istic.vandv.squeezer.algorithms.bytestrings.PhraseTable;
+
+import fr.istic.vandv.squeezer.io.ByteBufferOutputStream;
+import fr.istic.vandv.squeezer.io.ByteBuffers;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
-
-import static fr.istic.vandv.squeezer.algorithms.bytestrings.ByteString.EMPTY;
-import static fr.istic.vandv.squeezer.algorithms.bytestrings.ByteString.bytestr;
+import java.nio.ByteBuffer;
 
 public class LZWCompression implements CompressionAlgorithm {
 
+    public static final int OPCODE = 0;
+
+    public static final int MIN_BITS = 9;
+    public static final int MAX_BITS = 24;
+    public static final int DEFAULT_MAX_BITS = 16;
+
+    // Tells the decoder to start over with a fresh dictionary
+    public static final int CLEAR_CODE = 256;
+    private static final int FIRST_CODE = 257;
+
+    // Input bytes between two checks of the compression ratio once the dictionary is full
+    private static final int RATIO_CHECK_INTERVAL = 10000;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // The width is read from the payload, so every instance shares the decoding tables
+    private static final ContextPool<Decoding> DECODINGS = new ContextPool<>(Decoding::new);
+
+    public enum ResetPolicy {
+        // Keep using the full dictionary until the end of the stream
+        FREEZE,
+        // Start over with an empty dictionary as soon as it is full
+        RESET,
+        // Keep using the full dictionary while the compression ratio does not drop
+        RESET_ON_RATIO_DROP
+    }
+
+    private final int maxBits;
+    private final ResetPolicy policy;
+    private final ContextPool<Encoding> encodings;
+
+    public LZWCompression() {
+        this(DEFAULT_MAX_BITS, ResetPolicy.RESET_ON_RATIO_DROP);
+    }
+
+    public LZWCompression(int maxBits, ResetPolicy policy) {
+        if(maxBits < MIN_BITS || maxBits > MAX_BITS) {
+            throw new IllegalArgumentException("Maximum code width must be between " + MIN_BITS + " and " + MAX_BITS + ". Got: " + maxBits);
+        }
+        this.maxBits = maxBits;
+        this.policy = policy;
+        this.encodings = new ContextPool<>(() -> new Encoding(maxBits));
+    }
+
+    @Override
+    public int opcode() { return OPCODE; }
+
+    @Override
+    public String name() { return "LZW"; }
+
+    @Override
+    public String description() { return "Lempel-Ziv-Welch compression algorithm"; }
+
+    // Codes are packed with the number of bits needed to represent the size of the dictionary
+    // at the moment they are written: 9 bits for the first 255 codes, then 10, 11 and so on
+    // up to the maximum width. The decoder tracks the same size, so only the maximum width is stored.
+    private static int codeWidth(int dictionarySize, int maxBits) {
+        return Math.min(32 - Integer.numberOfLeadingZeros(dictionarySize), maxBits);
+    }
+
+    // One code per input byte at most, and a clear code each time a dictionary is filled with at
+    // least 255 entries
     @Override
-    public void compress(InputStream input, OutputStream output) throws IOException {
+    public long maxCompressedLength(long length) {
+        if(length == 0) return 0;
+        long codes = length + length / ((1 << MIN_BITS) - FIRST_CODE) + 1;
+        return 1 + (codes * maxBits + 7) / 8;
+    }
+
+    // Reading and writing are interleaved with the encoding, so everything is reported as encoding
+    @Override
+    public void compress(InputStream input, OutputStream output, CompressionListener listener) throws IOException {
+        long start = System.nanoTime();
+        Encoding encoding = encodings.acquire();
+        try {
+            encode(input, output, encoding);
+        }
+        finally {
+            encodings.release(encoding);
+        }
+        listener.lap(CompressionListener.ENCODE, start);
+    }
+
+    private void encode(InputStream input, OutputStream output, Encoding encoding) throws IOException {
         int next = input.read();
         if(next < 0) return;
+        output.write(maxBits);
 
-        ByteString pattern = bytestr(next);
+        // Index of the longest pattern found so far, single bytes are their own index
+        int pattern = next;
 
-        TrieDictionary dictionary = new TrieDictionary();
+        HashDictionary dictionary = encoding.dictionary;
+        dictionary.reset();
+        BitStringWriter writer = new BitStringWriter(output, encoding.buffer);
+        // Both counted since the last reset of the dictionary
+        long bytesRead = 1;
+        long bitsWritten = 0;
+        long nextRatioCheck = 0;
+        double bestRatio = 0;
         while((next = input.read()) >= 0) {
-            ByteString incoming = pattern.add(next);
-            if (dictionary.contains(incoming)) {
+            bytesRead++;
+            int incoming = dictionary.step(pattern, next);
+            if (incoming >= 0) {
                 pattern = incoming;
-            } else {
-                int code = dictionary.indexOf(pattern);
-                writeCode(code, output);
-                dictionary.add(incoming);
-                pattern = bytestr(next);
+                continue;
+            }
+            int width = codeWidth(dictionary.count(), maxBits);
+            writer.write(pattern, width);
+            bitsWritten += width;
+            if (!dictionary.isFull()) {
+                dictionary.expand(pattern, next);
             }
+            else if (policy == ResetPolicy.RESET || (policy == ResetPolicy.RESET_ON_RATIO_DROP && bytesRead >= nextRatioCheck)) {
+                double ratio = (double) bytesRead / bitsWritten;
+                if (policy == ResetPolicy.RESET || ratio < bestRatio) {
+                    writer.write(CLEAR_CODE, width);
+                    dictionary.reset();
+                    bytesRead = 1;
+                    bitsWritten = 0;
+                    nextRatioCheck = 0;
+                    bestRatio = 0;
+                }
+                else {
+                    bestRatio = ratio;
+                    nextRatioCheck = bytesRead + RATIO_CHECK_INTERVAL;
+                }
+            }
+            pattern = next;
         }
-        int code = dictionary.indexOf(pattern);
+        writer.write(pattern, codeWidth(dictionary.count(), maxBits));
+        writer.flush();
     }
 
-    private void writeCode(int value, OutputStream output) throws IOException {
-        while(value >= 255) {
-            output.write(255);
-            value -= 255;
+    @Override
+    public void decompress(InputStream input, OutputStream output, CompressionListener listener) throws IOException {
+        long start = System.nanoTime();
+        Decoding decoding = DECODINGS.acquire();
+        try {
+            decode(input, output, decoding);
+        }
+        finally {
+            DECODINGS.release(decoding);
         }
-        output.write(value);
+        listener.lap(CompressionListener.DECODE, start);
     }
 
-    private int readCode(InputStream input) throws IOException {
-        int acc = 0;
-        int current = 0;
-        while((current = input.read()) == 255) {
-            acc += 255;
-        }
-        if(current < 0) return -1;
-        return acc + current;
+    // Codes of heap buffers are read where they are
+    @Override
+    public void decompress(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        ByteBuffers.restoreOnOverflow(source, destination, () -> decompressBuffers(source, destination, listener));
     }
 
-    private List<ByteString> intializeTable() {
-        ArrayList<ByteString> table = new ArrayList<>();
-        for(int i = 0; i < 256; i++) {
-            table.add(bytestr(i));
+    private void decompressBuffers(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        if(!source.hasArray()) {
+            CompressionAlgorithm.super.decompress(source, destination, listener);
+            return;
         }
-        return table;
+        long start = System.nanoTime();
+        if(source.hasRemaining()) {
+            int maxBits = source.get() & 0xFF;
+            Decoding decoding = DECODINGS.acquire();
+            try {
+                BitStringReader reader = new BitStringReader(source.array(), source.arrayOffset() + source.position(), source.remaining());
+                decode(maxBits, reader, new ByteBufferOutputStream(destination), decoding);
+            }
+            finally {
+                DECODINGS.release(decoding);
+            }
+            source.position(source.limit());
+        }
+        listener.lap(CompressionListener.DECODE, start);
     }
 
-    @Override
-    public void decompress(InputStream input, OutputStream output) throws IOException {
-        List<ByteString> table = intializeTable();
-        int previousCode = readCode(input);
-        if(previousCode < 0) return;
-        output.write(previousCode);
+    private static void decode(InputStream input, OutputStream output, Decoding decoding) throws IOException {
+        int maxBits = input.read();
+        if(maxBits < 0) return;
+        decode(maxBits, new BitStringReader(input, decoding.input), output, decoding);
+    }
 
-        int currentByte = previousCode;
+    private static void decode(int maxBits, BitStringReader reader, OutputStream output, Decoding decoding) throws IOException {
+        if(maxBits < MIN_BITS || maxBits > MAX_BITS) {
+            throw new BadFileFormatException("Invalid maximum LZW code width: " + maxBits);
+        }
+        PhraseTable table = decoding.table(maxBits);
+        byte[] buffer = decoding.output;
+        int produced = 0;
+        int previousCode = -1;
         int currentCode;
-        while((currentCode = readCode(input)) >= 0) {
-            ByteString pattern = EMPTY;
-            if(currentCode >= table.size()) {
-                pattern = table.get(previousCode).add(currentByte);
+        // The encoder adds the entry for a code as soon as it writes it, the decoder when it reads the next one
+        while((currentCode = reader.read(codeWidth(previousCode < 0 || table.isFull() ? table.count() : table.count() + 1, maxBits))) >= 0) {
+            if(currentCode == CLEAR_CODE) {
+                table.reset();
+                previousCode = -1;
+                continue;
+            }
+            boolean known = table.contains(currentCode);
+            if(!known && (currentCode != table.count() || previousCode < 0)) {
+                throw new BadFileFormatException("Unknown LZW code: " + currentCode);
+            }
+            int length = known ? table.length(currentCode) : table.length(previousCode) + 1;
+            if(produced + length > buffer.length) {
+                output.write(buffer, 0, produced);
+                produced = 0;
+                if(length > buffer.length) {
+                    buffer = new byte[length];
+                    decoding.output = buffer;
+                }
+            }
+            if(known) {
+                table.copy(currentCode, buffer, produced);
             }
             else {
-                pattern = table.get(currentCode);
+                // The code being defined: previous string followed by its own first byte
+                table.copy(previousCode, buffer, produced);
+                buffer[produced + length - 1] = buffer[produced];
             }
-            output.write(pattern.toByteArray());
-            currentByte = pattern.at(0);
-            table.add(table.get(previousCode).add(currentByte));
+            if(previousCode >= 0 && !table.isFull()) {
+                table.expand(previousCode, Byte.toUnsignedInt(buffer[produced]));
+            }
+            produced += length;
             previousCode = currentCode;
         }
+        output.write(buffer, 0, produced);
+    }
+
+    private static class Encoding {
+        final HashDictionary dictionary;
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        Encoding(int maxBits) {
+            dictionary = new HashDictionary(FIRST_CODE, 1 << maxBits);
+        }
+    }
+
+    private static class Decoding {
+        // Tables grow with the entries, so keeping one for each width costs what was decoded with it
+        final PhraseTable[] tables = new PhraseTable[MAX_BITS + 1];
+        final byte[] input = new byte[BUFFER_SIZE];
+        // Grows to hold the longest string decoded so far
+        byte[] output = new byte[BUFFER_SIZE];
+
+        PhraseTable table(int maxBits) {
+            if(tables[maxBits] == null) {
+                tables[maxBits] = new PhraseTable(FIRST_CODE, 1 << maxBits);
+            }
+            tables[maxBits].reset();
+            return tables[maxBits];
+        }
     }
 }
@@ -1,92 +1,462 @@
 package fr.istic.vandv.squeezer.algorithms;
 
+import fr.istic.vandv.squeezer.io.ByteBufferOutputStream;
+import fr.istic.vandv.squeezer.io.ByteBuffers;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
+// The payload is a format version byte followed by blocks. Each block starts with a varint holding
+// its length and, in the lowest bit, its kind. Raw blocks are followed by their bytes and compressed
+// blocks by the repeated byte.
 public class RunLengthCompression implements CompressionAlgorithm {
 
-    public static final int RAW_BLOCK = 1;
-    public static final int COMPRESSED_BLOCK = 2;
-    public static final int MAX_BLOCK_LENGTH = 255;
-    public static final int MIN_COMPRESSED_BLOCK_LENGTH = 3;
+    public static final int OPCODE = 2;
+    public static final int VERSION = 2;
+
+    public static final int RAW_BLOCK = 0;
+    public static final int COMPRESSED_BLOCK = 1;
+    // Shorter runs cost as much as leaving them in a raw block
+    public static final int MIN_COMPRESSED_BLOCK_LENGTH = 4;
+
+    public static final int WINDOW_SIZE = 1 << 20;
+    // Bytes kept ahead of the scanner before sliding the window, so runs can be recognized
+    private static final int LOOKAHEAD = 64;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Reads 8 bytes at once, the first byte being the least significant
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    // There is no setting, so every instance shares the buffers
+    private static final ContextPool<Window> WINDOWS = new ContextPool<>(Window::new);
+    private static final ContextPool<Decoding> DECODINGS = new ContextPool<>(Decoding::new);
+
+    @Override
+    public int opcode() { return OPCODE; }
+
+    @Override
+    public String name() { return "RUN_LENGTH"; }
 
+    @Override
+    public String description() { return "Run-length compression algorithm"; }
+
+    // Headers of raw blocks take at most 3 bytes below 1 MiB and 5 above. A raw block ends before a run,
+    // which saves at least 2 bytes, before the window slides, once per window, or with the content.
+    @Override
+    public long maxCompressedLength(long length) {
+        return length + 2 * (length / 8192) + 8;
+    }
 
-    private int nextEqSequence(byte[] buffer, int from, int to) {
-        if(from > to) return 0;
-        int result = 1;
-        for(int i = from + 1; i >= to && buffer[i] == buffer[i - 1]; i++) {
-            result++;
+    @Override
+    public void compress(InputStream input, OutputStream output, CompressionListener listener) throws IOException {
+        long start = System.nanoTime();
+        Window window = WINDOWS.acquire().reset(input);
+        try {
+            encode(window, output);
+            listener.phase(CompressionListener.READ, window.readNanos);
+            listener.phase(CompressionListener.ENCODE, System.nanoTime() - start - window.readNanos);
+        }
+        finally {
+            WINDOWS.release(window.reset(null));
         }
-        return result;
     }
 
+    // Heap buffers are compressed where they are, as a single window
     @Override
-    public void compress(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[MAX_BLOCK_LENGTH + MIN_COMPRESSED_BLOCK_LENGTH];
-        int available = input.read(buffer);
+    public void compress(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        ByteBuffers.restoreOnOverflow(source, destination, () -> compressBuffers(source, destination, listener));
+    }
 
-        while(available > 0) {
-            // Starting from 0 index
+    private void compressBuffers(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        if(!source.hasArray()) {
+            CompressionAlgorithm.super.compress(source, destination, listener);
+            return;
+        }
+        long start = System.nanoTime();
+        int offset = source.arrayOffset() + source.position();
+        encode(new Window(source.array(), offset, offset + source.remaining()), new ByteBufferOutputStream(destination));
+        source.position(source.limit());
+        listener.lap(CompressionListener.ENCODE, start);
+    }
 
-            int currentRawBlock = 0;
-            int nextSequence = nextEqSequence(buffer, currentRawBlock, available - 1);
-            while(currentRawBlock < available &&  nextSequence > 0 && nextSequence < MIN_COMPRESSED_BLOCK_LENGTH) {
-                currentRawBlock += nextSequence;
-                nextSequence = nextEqSequence(buffer, currentRawBlock, available - 1);
+    private static void encode(Window window, OutputStream output) throws IOException {
+        if(!window.fill()) return;
+        output.write(VERSION);
+        while(window.start < window.end) {
+            byte[] buffer = window.buffer;
+            int run = runLength(buffer, buffer[window.start], window.start, window.end);
+            if(run >= MIN_COMPRESSED_BLOCK_LENGTH) {
+                byte value = buffer[window.start];
+                long total = run;
+                window.start += run;
+                // Runs go on across slides of the window
+                while(window.start == window.end && window.fill()) {
+                    run = runLength(window.buffer, value, window.start, window.end);
+                    total += run;
+                    window.start += run;
+                }
+                writeVarint(total << 1 | COMPRESSED_BLOCK, output);
+                output.write(value);
+            }
+            else {
+                int limit = window.exhausted? window.end : window.end - LOOKAHEAD;
+                int rawEnd = nextRun(buffer, window.start, limit, window.end);
+                writeVarint((long) (rawEnd - window.start) << 1 | RAW_BLOCK, output);
+                output.write(buffer, window.start, rawEnd - window.start);
+                window.start = rawEnd;
             }
+            if(window.end - window.start <= LOOKAHEAD) {
+                window.fill();
+            }
+        }
+    }
 
-            if(currentRawBlock > 0)  {
-                // There was content that can not be compressed
+    // Number of bytes equal to value from the given position, comparing 8 bytes at a time
+    static int runLength(byte[] buffer, byte value, int from, int to) {
+        long pattern = (value & 0xFFL) * ONES;
+        int index = from;
+        while(index + Long.BYTES <= to) {
+            long difference = (long) LONGS.get(buffer, index) ^ pattern;
+            if(difference != 0) {
+                return index + (Long.numberOfTrailingZeros(difference) >>> 3) - from;
+            }
+            index += Long.BYTES;
+        }
+        while(index < to && buffer[index] == value) {
+            index++;
+        }
+        return index - from;
+    }
 
-                if(currentRawBlock > MAX_BLOCK_LENGTH) {
-                    currentRawBlock = MAX_BLOCK_LENGTH;
-                    nextSequence = 0;
+    // Start of the first run worth compressing in [from, limit), limit if there is none
+    private static int nextRun(byte[] buffer, int from, int limit, int end) {
+        int index = from;
+        while(index < limit) {
+            if(index + Long.BYTES < end) {
+                // Zero bytes mark positions holding the same value as the next one
+                long pairs = (long) LONGS.get(buffer, index) ^ (long) LONGS.get(buffer, index + 1);
+                long equal = (pairs - ONES) & ~pairs & HIGH_BITS;
+                if(equal == 0) {
+                    index += Long.BYTES;
+                    continue;
                 }
-
-                output.write(RAW_BLOCK);
-                output.write(currentRawBlock);
-                output.write(buffer, 0, currentRawBlock);
+                index += Long.numberOfTrailingZeros(equal) >>> 3;
+                if(index >= limit) break;
             }
+            if(runLength(buffer, buffer[index], index, end) >= MIN_COMPRESSED_BLOCK_LENGTH) {
+                return index;
+            }
+            index++;
+        }
+        return limit;
+    }
+
+    private static void writeVarint(long value, OutputStream output) throws IOException {
+        while((value & ~0x7FL) != 0) {
+            output.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    // Bytes read but not yet compressed are those in [start, end)
+    private static class Window {
+        final byte[] buffer;
+        InputStream input;
+        int start;
+        int end;
+        boolean exhausted;
+        long readNanos;
+
+        Window() {
+            buffer = new byte[WINDOW_SIZE];
+        }
+
+        // Over content already in memory, nothing is read
+        Window(byte[] content, int start, int end) {
+            this.buffer = content;
+            this.start = start;
+            this.end = end;
+            this.exhausted = true;
+        }
 
-            if(nextSequence < available) {
-                output.write(COMPRESSED_BLOCK);
+        Window reset(InputStream input) {
+            this.input = input;
+            start = 0;
+            end = 0;
+            exhausted = false;
+            readNanos = 0;
+            return this;
+        }
 
-                output.write(nextSequence);
-                output.write(buffer[currentRawBlock]);
+        // Moves the pending bytes to the beginning and reads until full. Returns false if nothing is pending.
+        boolean fill() throws IOException {
+            if(!exhausted) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                long start = System.nanoTime();
+                int read = input.readNBytes(buffer, end, buffer.length - end);
+                readNanos += System.nanoTime() - start;
+                exhausted = end + read < buffer.length;
+                end += read;
             }
+            return start < end;
+        }
+    }
 
-            int bytesRead = currentRawBlock + nextSequence;
-            int toMove = available - bytesRead;
-            System.arraycopy(buffer, bytesRead, buffer, 0, toMove);
-            Arrays.fill(buffer, toMove, buffer.length - 1, (byte)0);
-            available = toMove;
-            int remaining = input.read(buffer, toMove, buffer.length - toMove);
+    @Override
+    public void decompress(InputStream input, OutputStream output, CompressionListener listener) throws IOException {
+        long start = System.nanoTime();
+        Decoding decoding = DECODINGS.acquire();
+        try {
+            decode(decoding.source.reset(input), decoding.sink.reset(output));
         }
+        finally {
+            decoding.source.reset(null);
+            decoding.sink.reset(null);
+            DECODINGS.release(decoding);
+        }
+        listener.lap(CompressionListener.DECODE, start);
     }
 
+    // Raw blocks are copied from buffer to buffer and runs are filled in place
     @Override
-    public void decompress(InputStream input, OutputStream output) throws IOException {
-        int block, length;
-        byte[] buffer = new byte[MAX_BLOCK_LENGTH];
-        while((block = input.read()) > 0) {
-            switch (block) {
-                case RAW_BLOCK:
-                    length = input.read();
-                    int actualLength = input.read(buffer, 0, length);
-                    output.write(buffer, 0, length);
-                    break;
-                case COMPRESSED_BLOCK:
-                    length = input.read();
-                    int value = input.read();
-                    Arrays.fill(buffer, 0, length, (byte)value);
-                    output.write(buffer, 0, length);
-                    break;
-                default:
-                    throw new BadFileFormatException("Expecting a valid block identifier, got: " + block);
+    public void decompress(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        ByteBuffers.restoreOnOverflow(source, destination, () -> decompressBuffers(source, destination, listener));
+    }
+
+    private void decompressBuffers(ByteBuffer source, ByteBuffer destination, CompressionListener listener) throws IOException {
+        long start = System.nanoTime();
+        if(!source.hasRemaining()) return;
+        int version = source.get() & 0xFF;
+        if(version != VERSION) {
+            throw new BadFileFormatException("Unsupported run length format version: " + version);
+        }
+        long header;
+        while((header = readVarint(source)) >= 0) {
+            long length = header >>> 1;
+            if(length == 0) {
+                throw new BadFileFormatException("Empty block.");
+            }
+            if(length > destination.remaining()) {
+                throw new BufferOverflowException();
+            }
+            if((header & 1) == RAW_BLOCK) {
+                if(length > source.remaining()) {
+                    throw new BadFileFormatException("Unexpected end of a raw block.");
+                }
+                ByteBuffer block = source.duplicate();
+                block.limit(source.position() + (int) length);
+                destination.put(block);
+                source.position(block.limit());
+            }
+            else {
+                if(!source.hasRemaining()) {
+                    throw new BadFileFormatException("Unexpected end of a compressed block.");
+                }
+                repeat(source.get(), (int) length, destination);
             }
         }
+        listener.lap(CompressionListener.DECODE, start);
+    }
+
+    // Returns -1 if the buffer ends before the first byte
+    private static long readVarint(ByteBuffer source) throws BadFileFormatException {
+        long result = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            if(!source.hasRemaining()) {
+                if(shift == 0) return -1;
+                throw new BadFileFormatException("Unexpected end of a block length.");
+            }
+            int next = source.get();
+            result |= (long) (next & 0x7F) << shift;
+            if((next & 0x80) == 0) return result;
+        }
+        throw new BadFileFormatException("Block length is too long.");
+    }
+
+    // Direct buffers have no fill, the filled range is doubled with each copy
+    private static void repeat(byte value, int length, ByteBuffer destination) {
+        int start = destination.position();
+        if(destination.hasArray()) {
+            int offset = destination.arrayOffset() + start;
+            Arrays.fill(destination.array(), offset, offset + length, value);
+            destination.position(start + length);
+            return;
+        }
+        destination.put(value);
+        int filled = 1;
+        while(filled < length) {
+            ByteBuffer copy = destination.duplicate();
+            copy.position(start).limit(start + Math.min(filled, length - filled));
+            filled += copy.remaining();
+            destination.put(copy);
+        }
+    }
+
+    private static void decode(Source source, Sink sink) throws IOException {
+        int version = source.read();
+        if(version < 0) return;
+        if(version != VERSION) {
+            throw new BadFileFormatException("Unsupported run length format version: " + version);
+        }
+        long header;
+        while((header = source.readVarint()) >= 0) {
+            long length = header >>> 1;
+            if(length == 0) {
+                throw new BadFileFormatException("Empty block.");
+            }
+            if((header & 1) == RAW_BLOCK) {
+                source.copy(length, sink);
+            }
+            else {
+                int value = source.read();
+                if(value < 0) {
+                    throw new BadFileFormatException("Unexpected end of a compressed block.");
+                }
+                sink.repeat((byte) value, length);
+            }
+        }
+        sink.flush();
+    }
+
+    // Buffers of a decompression call
+    private static class Decoding {
+        final Source source = new Source();
+        final Sink sink = new Sink();
+    }
+
+    // Compressed bytes are read in large chunks, headers are decoded from the chunk
+    private static class Source {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream input;
+        int position;
+        int limit;
+
+        Source reset(InputStream input) {
+            this.input = input;
+            position = 0;
+            limit = 0;
+            return this;
+        }
+
+        // Returns false at the end of the stream
+        boolean fill() throws IOException {
+            int read = input.read(buffer, 0, buffer.length);
+            position = 0;
+            limit = Math.max(read, 0);
+            return read > 0;
+        }
+
+        int read() throws IOException {
+            if(position == limit && !fill()) return -1;
+            return buffer[position++] & 0xFF;
+        }
 
+        // Returns -1 if the stream ends before the first byte
+        long readVarint() throws IOException {
+            long result = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                int next = read();
+                if(next < 0) {
+                    if(shift == 0) return -1;
+                    throw new BadFileFormatException("Unexpected end of a block length.");
+                }
+                result |= (long) (next & 0x7F) << shift;
+                if((next & 0x80) == 0) return result;
+            }
+            throw new BadFileFormatException("Block length is too long.");
+        }
+
+        void copy(long length, Sink sink) throws IOException {
+            int chunk = (int) Math.min(length, limit - position);
+            sink.write(buffer, position, chunk);
+            position += chunk;
+            length -= chunk;
+            // The rest of the block goes straight from the input to the output buffer
+            while(length > 0) {
+                int read = sink.read(input, (int) Math.min(length, Integer.MAX_VALUE));
+                if(read < 0) {
+                    throw new BadFileFormatException("Unexpected end of a raw block.");
+                }
+                length -= read;
+            }
+        }
+    }
+
+    // Decompressed bytes are gathered in a buffer written only once full
+    private static class Sink {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        OutputStream output;
+        int position;
+
+        Sink reset(OutputStream output) {
+            this.output = output;
+            position = 0;
+            return this;
+        }
+
+        void write(byte[] source, int offset, int length) throws IOException {
+            while(length > 0) {
+                int chunk = Math.min(length, buffer.length - position);
+                System.arraycopy(source, offset, buffer, position, chunk);
+                position += chunk;
+                offset += chunk;
+                length -= chunk;
+                if(position == buffer.length) flush();
+            }
+        }
+
+        // Reads at most length bytes, returns -1 at the end of the stream
+        int read(InputStream input, int length) throws IOException {
+            int read = input.read(buffer, position, Math.min(length, buffer.length - position));
+            if(read > 0) {
+                position += read;
+                if(position == buffer.length) flush();
+            }
+            return read;
+        }
+
+        void repeat(byte value, long length) throws IOException {
+            // Once the whole buffer holds the value it can be written again as is
+            boolean filled = false;
+            while(length > 0) {
+                int chunk = (int) Math.min(length, buffer.length - position);
+                if(!filled || position != 0 || chunk != buffer.length) {
+                    fill(position, chunk, value);
+                    filled = position == 0 && chunk == buffer.length;
+                }
+                position += chunk;
+                length -= chunk;
+                if(position == buffer.length) flush();
+            }
+        }
+
+        // Doubles the filled range with each copy
+        private void fill(int from, int length, byte value) {
+            buffer[from] = value;
+            int filled = 1;
+            while(filled < length) {
+                int chunk = Math.min(filled, length - filled);
+                System.arraycopy(buffer, from, buffer, from + filled, chunk);
+                filled += chunk;
+            }
+        }
+
+        void flush() throws IOException {
+            output.write(buffer, 0, position);
+            position = 0;
+        }
     }
 }
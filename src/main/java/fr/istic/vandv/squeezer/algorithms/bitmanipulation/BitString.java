@@ -88,16 +88,23 @@ public class BitString {
         return builder.reverse().toString();
     }
 
+    // Packs the bits straight into the content instead of appending them one by one
     public static BitString parse(String value) {
-        BitString result = new BitString();
+        if(value.isEmpty()) return new BitString();
+        byte[] content = new byte[requiredLenghtForBits(value.length())];
         for(int i = 0; i < value.length(); i++) {
             char c = value.charAt(i);
             switch (c) {
-                case '0': result = result.appendZero(); break;
-                case '1': result = result.appendOne(); break;
+                case '0': break;
+                case '1': content[i / 8] |= (byte)(128 >>> (i % 8)); break;
                 default: throw new IllegalArgumentException("Bit strings must contain ony 0's and 1's. Got " + c + " at index " + i + ".");
             }
         }
-        return result;
+        return new BitString(content, value.length());
+    }
+
+    // Byte holding the given bit, without copying the content
+    byte byteAt(int index) {
+        return content[index];
     }
 }
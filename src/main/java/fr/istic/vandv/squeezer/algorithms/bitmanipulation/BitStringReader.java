@@ -0,0 +1,116 @@
+package fr.istic.vandv.squeezer.algorithms.bitmanipulation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+// Bits are read most significant first. Past the end of the content the reader returns zeros, the
+// padding of the last byte, but they can not be consumed. Reads from a stream fetch whole chunks, so
+// the stream should hold nothing after the bits.
+public class BitStringReader {
+
+    // Largest number of bits peeked at once, so they always fit in the window after a refill
+    public static final int MAX_BITS = 57;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final InputStream input;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+    // The next bit is the most significant one, only windowBits of them are content
+    private long window = 0;
+    private int windowBits = 0;
+
+    public BitStringReader(InputStream input) {
+        this(input, new byte[BUFFER_SIZE]);
+    }
+
+    // Reads chunks of the stream into the given buffer
+    public BitStringReader(InputStream input, byte[] buffer) {
+        if(buffer.length < Long.BYTES) {
+            throw new IllegalArgumentException("Buffer must hold at least " + Long.BYTES + " bytes. Got: " + buffer.length);
+        }
+        this.input = input;
+        this.buffer = buffer;
+    }
+
+    public BitStringReader(byte[] content, int offset, int length) {
+        this.input = null;
+        this.buffer = content;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    // Returns the next bits without consuming them
+    public long peek(int bits) throws IOException {
+        if(bits < 1 || bits > MAX_BITS) {
+            throw new IllegalArgumentException("Bits to peek must be at least 1 and no larger than " + MAX_BITS + ". Got: " + bits);
+        }
+        if(windowBits < bits) {
+            refill();
+        }
+        return window >>> (64 - bits);
+    }
+
+    public void consume(int bits) throws IOException {
+        if(bits < 0 || bits > MAX_BITS) {
+            throw new IllegalArgumentException("Bits to consume must be at least 0 and no larger than " + MAX_BITS + ". Got: " + bits);
+        }
+        if(bits > windowBits) {
+            refill();
+            if(bits > windowBits) {
+                throw new EOFException("Not enough bits left. Expected " + bits + ", got " + windowBits);
+            }
+        }
+        window <<= bits;
+        windowBits -= bits;
+    }
+
+    // Content bits available without reading further, at least the last peeked ones if they were not padding
+    public int available() {
+        return windowBits;
+    }
+
+    // Reads the given number of bits. Returns -1 if the content ends before.
+    public int read(int bits) throws IOException {
+        if(bits < 1 || bits > 32) {
+            throw new IllegalArgumentException("Bits to read must be at least 1 and no larger than 32. Got: " + bits);
+        }
+        int result = (int) peek(bits);
+        if(windowBits < bits) return -1;
+        window <<= bits;
+        windowBits -= bits;
+        return result;
+    }
+
+    // Fills the window up to at least MAX_BITS bits unless the content ends before
+    private void refill() throws IOException {
+        if(limit - position >= Long.BYTES) {
+            // Bits past the window are the next content bits, loading them again later is harmless
+            window |= (long) LONGS.get(buffer, position) >>> windowBits;
+            int bytes = (64 - windowBits) >>> 3;
+            position += bytes;
+            windowBits += bytes << 3;
+            return;
+        }
+        while(windowBits <= 56) {
+            if(position == limit && !fill()) return;
+            window |= (long)(buffer[position++] & 0xFF) << (56 - windowBits);
+            windowBits += 8;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if(input == null) return false;
+        int read = input.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
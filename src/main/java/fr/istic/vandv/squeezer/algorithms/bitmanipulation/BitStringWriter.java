@@ -5,35 +5,58 @@ import java.io.OutputStream;
 
 public class BitStringWriter {
 
+    // Largest number of bits written at once, so they always fit next to an incomplete byte
+    public static final int MAX_BITS = 57;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
     private final OutputStream output;
+    // Complete bytes waiting to be written to the output
+    private final byte[] buffer;
+    private int position = 0;
+    // The last bitsInUse bits of the accumulator have not been staged yet
+    private long accumulator = 0;
     private int bitsInUse = 0;
-    private int buffer = 0;
-
-    private static final int MASK = 0xFF;
 
     public BitStringWriter(OutputStream output) {
+        this(output, new byte[BUFFER_SIZE]);
+    }
+
+    // Stages bytes in the given buffer, which may be reused once the writer is flushed
+    public BitStringWriter(OutputStream output, byte[] buffer) {
+        if(buffer.length < Long.BYTES) {
+            throw new IllegalArgumentException("Buffer must hold at least " + Long.BYTES + " bytes. Got: " + buffer.length);
+        }
         this.output = output;
+        this.buffer = buffer;
     }
 
+    // Writes the last count bits of the given value, most significant first
+    public void write(long bits, int count) throws IOException {
+        if(count < 1 || count > MAX_BITS) {
+            throw new IllegalArgumentException("Bits to write must be at least 1 and no larger than " + MAX_BITS + ". Got: " + count);
+        }
+        accumulator = (accumulator << count) | (bits & (-1L >>> (64 - count)));
+        bitsInUse += count;
+        if(bitsInUse < 8) return;
+        if(position + Long.BYTES > buffer.length) {
+            drain();
+        }
+        while(bitsInUse >= 8) {
+            bitsInUse -= 8;
+            buffer[position++] = (byte)(accumulator >>> bitsInUse);
+        }
+    }
 
     public void write(byte value, int bits) throws IOException {
         if(bits < 1 || bits > 8) {
             throw new IllegalArgumentException("Bits to write must be at least 1 and no larger than 8. Got: " + bits);
         }
-        buffer <<= bits;
-        buffer |= (Byte.toUnsignedInt(value) >> (8 - bits));
-        bitsInUse += bits;
-        if(bitsInUse >= 8) {
-            int extra = bitsInUse - 8;
-            int sliceMask = MASK << extra;
-            output.write((byte)((buffer & sliceMask) >> extra));
-            buffer &= ~sliceMask;
-            bitsInUse = extra;
-        }
+        write(Byte.toUnsignedInt(value) >>> (8 - bits), bits);
     }
 
     public void write(byte value) throws IOException {
-        write(value, 8);
+        write(Byte.toUnsignedInt(value), 8);
     }
 
     public void write(byte[] values) throws IOException {
@@ -43,21 +66,27 @@ public class BitStringWriter {
     }
 
     public void write(BitString value) throws IOException {
-
-        byte[] content = value.toByteArray();
-        for (int i = 0; i < content.length - 1; i++) {
-            write(content[i]);
+        int bytes = BitString.requiredLenghtForBits(value.length());
+        for (int i = 0; i < bytes - 1; i++) {
+            write(value.byteAt(i));
+        }
+        if (bytes > 0) {
+            write(value.byteAt(bytes - 1), value.bitsInLastByte());
         }
-        write(content[content.length - 1], value.bitsInLastByte());
     }
 
+    // Pads the incomplete byte with zeros and writes all staged bytes. Returns the bits used in the last byte.
     public int flush() throws IOException {
-        if (bitsInUse == 0) return 0;
-        output.write((byte) (buffer << (8 - bitsInUse)));
-        buffer = 0;
         int result = bitsInUse;
-        bitsInUse = 0;
+        if (bitsInUse > 0) {
+            write(0, 8 - bitsInUse);
+        }
+        drain();
         return result;
+    }
 
+    private void drain() throws IOException {
+        output.write(buffer, 0, position);
+        position = 0;
     }
 }
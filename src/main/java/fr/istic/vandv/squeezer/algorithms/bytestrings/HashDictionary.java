@@ -0,0 +1,100 @@
+package fr.istic.vandv.squeezer.algorithms.bytestrings;
+
+import java.util.Arrays;
+
+// Dictionary of byte strings where every entry is a known entry followed by one byte.
+// Entries live in a single open addressed table of longs mapping (prefix index, byte) to an index.
+// The table doubles as entries are added, so a wide dictionary only costs what is stored in it.
+public class HashDictionary {
+
+    public static final int MAX_COUNT = 1 << 24;
+
+    private static final int INITIAL_CAPACITY_BITS = 13;
+
+    private final int firstIndex;
+    private final int maxCount;
+    private final int maxCapacityBits;
+    private long[] slots; // (prefix index << 8 | byte) << 32 | index, 0 for empty slots
+    private int shift;
+    private int count; // Signals the next index
+
+    // Indexes below firstIndex are reserved, the first 256 of them being the single bytes
+    public HashDictionary(int firstIndex, int maxCount) {
+        if(firstIndex < 256 || maxCount <= firstIndex || maxCount > MAX_COUNT)
+            throw new IllegalArgumentException("Invalid dictionary bounds: " + firstIndex + " to " + maxCount);
+        this.firstIndex = firstIndex;
+        this.maxCount = maxCount;
+        maxCapacityBits = 33 - Integer.numberOfLeadingZeros(maxCount - 1); // At most half full
+        allocate(Math.min(maxCapacityBits, INITIAL_CAPACITY_BITS));
+        count = firstIndex;
+    }
+
+    // Index of the string at the given index followed by the given byte, -1 if it is not in the dictionary
+    public int step(int index, int value) {
+        long key = key(index, value);
+        int mask = slots.length - 1;
+        for(int slot = slot(key); slots[slot] != 0; slot = (slot + 1) & mask) {
+            if(slots[slot] >>> 32 == key)
+                return (int) slots[slot];
+        }
+        return -1;
+    }
+
+    // Adds the string at the given index followed by the given byte and returns its index
+    public int expand(int index, int value) {
+        if(isFull())
+            throw new IllegalStateException("Dictionary is full with " + count + " entries");
+        long key = key(index, value);
+        int mask = slots.length - 1;
+        int slot = slot(key);
+        for(; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if(slots[slot] >>> 32 == key)
+                throw new IllegalArgumentException("Dictionary already contains this byte string with index " + (int) slots[slot]);
+        }
+        slots[slot] = key << 32 | count;
+        if(2 * (count - firstIndex + 1) > slots.length)
+            grow();
+        return count++;
+    }
+
+    private void grow() {
+        long[] previous = slots;
+        allocate(Integer.numberOfTrailingZeros(previous.length) + 1);
+        int mask = slots.length - 1;
+        for(long entry : previous) {
+            if(entry == 0)
+                continue;
+            int slot = slot(entry >>> 32);
+            while(slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = entry;
+        }
+    }
+
+    private void allocate(int capacityBits) {
+        slots = new long[1 << capacityBits];
+        shift = 64 - capacityBits;
+    }
+
+    // Number of slots of the table, which grows up to twice the maximum number of entries
+    public int capacity() { return slots.length; }
+
+    public boolean isFull() { return count == maxCount; }
+
+    public void reset() {
+        Arrays.fill(slots, 0);
+        count = firstIndex;
+    }
+
+    public int count() { return count; }
+
+    private long key(int index, int value) {
+        if(index < 0 || index >= count || (index >= 256 && index < firstIndex))
+            throw new IllegalArgumentException("Index " + index + " is not in the dictionary");
+        return (long) index << 8 | value;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+}
@@ -0,0 +1,78 @@
+package fr.istic.vandv.squeezer.algorithms.bytestrings;
+
+import java.util.Arrays;
+
+// Decoding side of a HashDictionary. Each entry is a known entry followed by one byte, stored as
+// its prefix index, its last byte and its length, so the table is linear in the number of entries.
+public class PhraseTable {
+
+    private final int firstIndex;
+    private final int maxCount;
+    private int[] prefixes;
+    private byte[] suffixes;
+    private int[] lengths;
+    private int count; // Signals the next index
+
+    // Indexes below firstIndex are reserved, the first 256 of them being the single bytes
+    public PhraseTable(int firstIndex, int maxCount) {
+        if(firstIndex < 256 || maxCount <= firstIndex || maxCount > HashDictionary.MAX_COUNT)
+            throw new IllegalArgumentException("Invalid table bounds: " + firstIndex + " to " + maxCount);
+        this.firstIndex = firstIndex;
+        this.maxCount = maxCount;
+        int capacity = Math.min(maxCount, 1 << 12);
+        prefixes = new int[capacity];
+        suffixes = new byte[capacity];
+        lengths = new int[capacity];
+        for(int i = 0; i < 256; i++) {
+            prefixes[i] = -1;
+            suffixes[i] = (byte) i;
+            lengths[i] = 1;
+        }
+        count = firstIndex;
+    }
+
+    // Adds the string at the given index followed by the given byte and returns its index
+    public int expand(int index, int value) {
+        if(isFull())
+            throw new IllegalStateException("Table is full with " + count + " entries");
+        if(count == prefixes.length) {
+            int capacity = Math.min(maxCount, 2 * count);
+            prefixes = Arrays.copyOf(prefixes, capacity);
+            suffixes = Arrays.copyOf(suffixes, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+        prefixes[count] = index;
+        suffixes[count] = (byte) value;
+        lengths[count] = length(index) + 1;
+        return count++;
+    }
+
+    public int length(int index) {
+        if(!contains(index))
+            throw new IllegalArgumentException("Index " + index + " is not in the table");
+        return lengths[index];
+    }
+
+    public boolean contains(int index) {
+        return index >= 0 && index < count && (index < 256 || index >= firstIndex);
+    }
+
+    // Writes the string at the given index backwards from its last byte, so it starts at offset.
+    // Returns the number of bytes written.
+    public int copy(int index, byte[] buffer, int offset) {
+        int length = length(index);
+        int position = offset + length - 1;
+        while(index >= 256) {
+            buffer[position--] = suffixes[index];
+            index = prefixes[index];
+        }
+        buffer[position] = (byte) index;
+        return length;
+    }
+
+    public boolean isFull() { return count == maxCount; }
+
+    public void reset() { count = firstIndex; }
+
+    public int count() { return count; }
+}
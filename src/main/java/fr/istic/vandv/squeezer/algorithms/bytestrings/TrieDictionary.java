@@ -1,15 +1,21 @@
 package fr.istic.vandv.squeezer.algorithms.bytestrings;
 
+import java.util.Arrays;
+
 public class TrieDictionary {
 
     private int count; // Signals the next index
 
     private final TrieNode root;
 
+    // Nodes by index, so a code can be used as a cursor into the trie
+    private TrieNode[] entries;
+
     public TrieDictionary(){
         root = new TrieNode();
+        entries = new TrieNode[512];
         for(int i = 0; i < 256; i++) {
-            root.expand(i, i);
+            entries[i] = root.expand(i, i);
         }
         count = 256;
     }
@@ -22,11 +28,37 @@ public class TrieDictionary {
             int value = string.at(index);
             current = current.hasChildrenAt(value)?current.at(value):current.expand(value);
         }
-        if(current.hasIndex()) {
-            throw new IllegalArgumentException("Dictionary already contains this byte string with index " + current.index);
+        return register(current);
+    }
+
+    // Index of the string at the given index followed by the given byte, -1 if it is not in the dictionary
+    public int step(int index, int value) {
+        TrieNode child = entryAt(index).at(value);
+        return child != null && child.hasIndex() ? child.index : -1;
+    }
+
+    // Adds the string at the given index followed by the given byte and returns its index
+    public int expand(int index, int value) {
+        TrieNode current = entryAt(index);
+        return register(current.hasChildrenAt(value) ? current.at(value) : current.expand(value));
+    }
+
+    private TrieNode entryAt(int index) {
+        if(index < 0 || index >= count)
+            throw new IllegalArgumentException("Index " + index + " is not in the dictionary");
+        return entries[index];
+    }
+
+    private int register(TrieNode node) {
+        if(node.hasIndex()) {
+            throw new IllegalArgumentException("Dictionary already contains this byte string with index " + node.index);
+        }
+        if(count == entries.length) {
+            entries = Arrays.copyOf(entries, 2 * count);
         }
-        current.index = count++;
-        return current.index;
+        node.index = count;
+        entries[count] = node;
+        return count++;
     }
 
     public boolean contains(ByteString string) {
@@ -0,0 +1,25 @@
+package fr.istic.vandv.squeezer.io;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Writes into the remaining space of a buffer, which may be direct or mapped. The buffer is never
+// grown: writing past its limit throws BufferOverflowException.
+public class ByteBufferOutputStream extends OutputStream {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferOutputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void write(int value) {
+        buffer.put((byte) value);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        buffer.put(bytes, offset, length);
+    }
+}
@@ -0,0 +1,30 @@
+package fr.istic.vandv.squeezer.io;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+public final class ByteBuffers {
+
+    private ByteBuffers() {}
+
+    // An operation moving the positions of a source and a destination buffer
+    public interface Transfer {
+        void run() throws IOException;
+    }
+
+    // Runs the transfer. When the destination is too small, both positions are put back where they
+    // were before BufferOverflowException is thrown again, so the caller can retry with a larger
+    // destination. The bytes of the destination past its position may have been written anyway.
+    public static void restoreOnOverflow(ByteBuffer source, ByteBuffer destination, Transfer transfer) throws IOException {
+        int sourcePosition = source.position();
+        int destinationPosition = destination.position();
+        try {
+            transfer.run();
+        } catch (BufferOverflowException exc) {
+            source.position(sourcePosition);
+            destination.position(destinationPosition);
+            throw exc;
+        }
+    }
+}
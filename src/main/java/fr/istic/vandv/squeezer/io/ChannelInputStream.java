@@ -0,0 +1,100 @@
+package fr.istic.vandv.squeezer.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Reads a file through its channel, either into a reusable direct buffer or, for large files,
+// by mapping consecutive regions of the file into memory.
+public class ChannelInputStream extends InputStream {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    // Files at least this large are mapped instead of read
+    public static final long MAPPING_THRESHOLD = 64L << 20;
+    private static final long MAPPED_REGION_SIZE = 256L << 20;
+
+    private final FileChannel channel;
+    private final boolean mapped;
+    private final int bufferSize;
+    private ByteBuffer buffer;
+    private long position;
+    // Time spent waiting for the channel. Mapped regions are loaded on access, which is not counted.
+    private long waitNanos = 0;
+
+    public ChannelInputStream(Path path, int bufferSize) throws IOException {
+        if(bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive. Got: " + bufferSize);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.bufferSize = bufferSize;
+        this.mapped = channel.size() >= MAPPING_THRESHOLD;
+        this.position = channel.position();
+        this.buffer = mapped? ByteBuffer.allocate(0) : ByteBuffer.allocateDirect(bufferSize).limit(0);
+    }
+
+    public ChannelInputStream(Path path) throws IOException {
+        this(path, DEFAULT_BUFFER_SIZE);
+    }
+
+    public int getBufferSize() { return bufferSize; }
+
+    public long getWaitNanos() { return waitNanos; }
+
+    // Returns false if there is nothing else to read
+    private boolean refill() throws IOException {
+        if(buffer.hasRemaining()) return true;
+        long start = System.nanoTime();
+        try {
+            return mapped? mapRegion() : fill();
+        }
+        finally {
+            waitNanos += System.nanoTime() - start;
+        }
+    }
+
+    private boolean mapRegion() throws IOException {
+        long length = Math.min(MAPPED_REGION_SIZE, channel.size() - position);
+        if(length <= 0) return false;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        position += length;
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while(read == 0);
+        buffer.flip();
+        return read > 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!refill()) return -1;
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if(length == 0) return 0;
+        if(!refill()) return -1;
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,72 @@
+package fr.istic.vandv.squeezer.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writes to a file through its channel, staging the bytes in a reusable direct buffer.
+public class ChannelOutputStream extends OutputStream {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    // Time spent waiting for the channel
+    private long waitNanos = 0;
+
+    public ChannelOutputStream(Path path, int bufferSize) throws IOException {
+        if(bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive. Got: " + bufferSize);
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public ChannelOutputStream(Path path) throws IOException {
+        this(path, ChannelInputStream.DEFAULT_BUFFER_SIZE);
+    }
+
+    public long getWaitNanos() { return waitNanos; }
+
+    @Override
+    public void write(int value) throws IOException {
+        if(!buffer.hasRemaining()) drain();
+        buffer.put((byte) value);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while(length > 0) {
+            if(!buffer.hasRemaining()) drain();
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void drain() throws IOException {
+        long start = System.nanoTime();
+        buffer.flip();
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        waitNanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
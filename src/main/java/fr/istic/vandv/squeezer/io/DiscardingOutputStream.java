@@ -0,0 +1,24 @@
+package fr.istic.vandv.squeezer.io;
+
+import java.io.OutputStream;
+
+// Counts the bytes written and drops them, to decompress without writing any output.
+public class DiscardingOutputStream extends OutputStream {
+
+    private long count = 0;
+
+    @Override
+    public void write(int value) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        if(offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length + ") out of bounds for length " + bytes.length);
+        }
+        count += length;
+    }
+
+    public long getCount() { return count; }
+}
@@ -0,0 +1,173 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.algorithms.AlgorithmRegistry;
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
+import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
+import fr.istic.vandv.squeezer.algorithms.LZWCompression;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+// CompressingOutputStream and DecompressingInputStream, written and read back against each other
+public class CompressingStreamsTest {
+
+    private static final int BLOCK_SIZE = 1000;
+
+    private static class ClosableOutput extends ByteArrayOutputStream {
+        boolean closed = false;
+
+        @Override
+        public void close() { closed = true; }
+    }
+
+    private static class ClosableInput extends ByteArrayInputStream {
+        boolean closed = false;
+
+        ClosableInput(byte[] content) { super(content); }
+
+        @Override
+        public void close() { closed = true; }
+    }
+
+    private static byte[] content(int length) {
+        Random random = new Random(length);
+        byte[] content = new byte[length];
+        for(int i = 0; i < length; i++) content[i] = (byte) ('a' + random.nextInt(1 + i % 7));
+        return content;
+    }
+
+    private static byte[] readAll(byte[] compressed) throws IOException {
+        try(InputStream input = new DecompressingInputStream(new ByteArrayInputStream(compressed))) {
+            return input.readAllBytes();
+        }
+    }
+
+    @Test
+    public void roundTripsWithEveryAlgorithm() throws IOException {
+        // Empty, shorter than a block, exactly a block, and several blocks with a partial last one
+        int[] lengths = { 0, 1, 999, BLOCK_SIZE, 2 * BLOCK_SIZE, 5 * BLOCK_SIZE + 123 };
+        for(CompressionAlgorithm algorithm : AlgorithmRegistry.getDefault().algorithms()) {
+            for(boolean checksums : new boolean[] { false, true }) {
+                for(int length : lengths) {
+                    byte[] content = content(length);
+                    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                    try(CompressingOutputStream output = new CompressingOutputStream(compressed, algorithm, BLOCK_SIZE, checksums)) {
+                        // Chunks not aligned on blocks
+                        for(int offset = 0; offset < length; offset += 337) {
+                            output.write(content, offset, Math.min(337, length - offset));
+                        }
+                    }
+                    assertArrayEquals(algorithm.name() + " " + checksums + " " + length, content, readAll(compressed.toByteArray()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writesAndReadsSingleBytes() throws IOException {
+        byte[] content = content(3 * BLOCK_SIZE + 17);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try(CompressingOutputStream output = new CompressingOutputStream(compressed, new LZWCompression(), BLOCK_SIZE)) {
+            for(byte value : content) output.write(value);
+        }
+        ByteArrayOutputStream read = new ByteArrayOutputStream();
+        try(DecompressingInputStream input = new DecompressingInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+            int value;
+            while((value = input.read()) >= 0) {
+                assertTrue(value <= 0xFF);
+                read.write(value);
+            }
+            assertEquals(-1, input.read());
+            assertEquals(-1, input.read(new byte[4], 0, 4));
+            assertEquals(0, input.available());
+        }
+        assertArrayEquals(content, read.toByteArray());
+    }
+
+    @Test
+    public void flushMakesEveryWrittenByteReadable() throws IOException {
+        byte[] content = content(2500);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        CompressingOutputStream output = new CompressingOutputStream(compressed, new LZWCompression(), BLOCK_SIZE);
+        // Split points in the middle of blocks, on a block end and twice at the same place
+        int[] flushes = { 10, 10, 700, BLOCK_SIZE, 1801, content.length };
+        int written = 0;
+        for(int flush : flushes) {
+            output.write(content, written, flush - written);
+            written = flush;
+            output.flush();
+            // No end marker yet, so only read what has been written
+            DecompressingInputStream input = new DecompressingInputStream(new ByteArrayInputStream(compressed.toByteArray()));
+            assertArrayEquals("After " + flush + " bytes", Arrays.copyOf(content, flush), input.readNBytes(flush));
+        }
+        output.close();
+        assertArrayEquals(content, readAll(compressed.toByteArray()));
+    }
+
+    @Test
+    public void finishEndsTheContainerWithoutClosing() throws IOException {
+        ClosableOutput compressed = new ClosableOutput();
+        CompressingOutputStream output = new CompressingOutputStream(compressed, new LZWCompression(), BLOCK_SIZE);
+        output.write(content(1500));
+        output.finish();
+        assertFalse(compressed.closed);
+        int length = compressed.size();
+        // A second finish and a flush write nothing more
+        output.finish();
+        output.flush();
+        assertEquals(length, compressed.size());
+        assertThrows(IOException.class, () -> output.write(1));
+        assertThrows(IOException.class, () -> output.write(new byte[3], 0, 3));
+        assertArrayEquals(content(1500), readAll(compressed.toByteArray()));
+        output.close();
+        assertTrue(compressed.closed);
+        assertEquals(length, compressed.size());
+    }
+
+    @Test
+    public void closeFinishesAndClosesOnce() throws IOException {
+        ClosableOutput compressed = new ClosableOutput();
+        CompressingOutputStream output = new CompressingOutputStream(compressed, new LZWCompression(), BLOCK_SIZE);
+        output.write(content(10));
+        output.close();
+        assertTrue(compressed.closed);
+        int length = compressed.size();
+        output.close();
+        assertEquals(length, compressed.size());
+        assertThrows(IOException.class, () -> output.write(1));
+        assertArrayEquals(content(10), readAll(compressed.toByteArray()));
+
+        ClosableInput source = new ClosableInput(compressed.toByteArray());
+        DecompressingInputStream input = new DecompressingInputStream(source);
+        input.close();
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void rejectsContentWithoutFrames() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(Application.SQZ_HEADER);
+        compressed.write(LZWCompression.OPCODE);
+        new LZWCompression().compress(new ByteArrayInputStream(content(100)), compressed);
+        assertThrows(BadFileFormatException.class, () -> new DecompressingInputStream(new ByteArrayInputStream(compressed.toByteArray())));
+        assertThrows(BadFileFormatException.class, () -> new DecompressingInputStream(new ByteArrayInputStream("ZIP".getBytes())));
+    }
+
+    @Test
+    public void rejectsInvalidRanges() throws IOException {
+        CompressingOutputStream output = new CompressingOutputStream(new ByteArrayOutputStream(), new LZWCompression(), BLOCK_SIZE);
+        assertThrows(IndexOutOfBoundsException.class, () -> output.write(new byte[4], 3, 2));
+        assertThrows(IllegalArgumentException.class, () -> new CompressingOutputStream(new ByteArrayOutputStream(), new LZWCompression(), 0));
+    }
+}
@@ -0,0 +1,183 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.Application.ExitCodes;
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import picocli.CommandLine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DaemonTest {
+
+    // Huffman payload: symbol count, payload length, table size, then symbol and length pairs
+    private static final int TABLE = Application.SQZ_HEADER.length + 1 + 8 + 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private PrintStream systemErr;
+    private String home;
+    private Daemon daemon;
+    private Thread server;
+
+    // The daemon publishes its port in the home directory, where the commands look for it
+    @Before
+    public void serve() throws Exception {
+        systemErr = System.err;
+        System.setErr(new PrintStream(err, true));
+        home = System.getProperty("user.home");
+        System.setProperty("user.home", folder.getRoot().getPath());
+        daemon = new Daemon(0, 2, Daemon.portFile());
+        server = new Thread(() -> {
+            try {
+                daemon.serve();
+            } catch (IOException exc) {
+                throw new AssertionError(exc);
+            }
+        });
+        server.start();
+        while(Daemon.runningPort(Daemon.portFile()) < 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @After
+    public void stop() throws Exception {
+        daemon.close();
+        server.join();
+        System.setProperty("user.home", home);
+        System.setErr(systemErr);
+    }
+
+    private static int run(String... args) {
+        return new CommandLine(new Application()).execute(args);
+    }
+
+    // Huffman file of skewed content, so codes have several lengths
+    private File archive(String name) throws Exception {
+        byte[] content = new byte[20000];
+        Random random = new Random(7);
+        for(int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + Integer.numberOfTrailingZeros(random.nextInt() | 1 << 12));
+        }
+        File input = folder.newFile(name + ".txt");
+        Files.write(input.toPath(), content);
+        File output = new File(folder.getRoot(), name + ".sqz");
+        assertEquals(ExitCodes.SUCCESS, run("compress", "-u", "HUFFMAN", input.getPath(), output.getPath()));
+        return output;
+    }
+
+    private static byte[] oversubscribe(byte[] archive) {
+        byte[] corrupted = archive.clone();
+        for(int pair = 0; pair < 3; pair++) {
+            corrupted[TABLE + 2 * pair + 1] = 1;
+        }
+        return corrupted;
+    }
+
+    @Test
+    public void roundTripsThroughTheDaemon() throws Exception {
+        File archive = archive("valid");
+        File output = new File(folder.getRoot(), "valid.out");
+        assertEquals(ExitCodes.SUCCESS, run("decompress", archive.getPath(), output.getPath()));
+        assertArrayEquals(Files.readAllBytes(folder.getRoot().toPath().resolve("valid.txt")), Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void reportsCorruptPayloadAsWrongFormat() throws Exception {
+        byte[] payload = Files.readAllBytes(archive("payload").toPath());
+        byte[] corrupted = oversubscribe(payload);
+        ByteArrayInputStream input = new ByteArrayInputStream(Arrays.copyOfRange(corrupted, Application.SQZ_HEADER.length + 1, corrupted.length));
+        try {
+            Daemon.forward(Daemon.DECOMPRESS, corrupted[Application.SQZ_HEADER.length], input, new ByteArrayOutputStream());
+            fail("The daemon decompressed a corrupt payload");
+        } catch (BadFileFormatException exc) {
+            // Not prefixed twice once received
+            assertEquals(1, exc.getMessage().split("Wrong file format").length - 1);
+        }
+    }
+
+    @Test
+    public void exitsAsLocalRunsOnCorruptFiles() throws Exception {
+        File archive = archive("corrupted");
+        Path path = archive.toPath();
+        Files.write(path, oversubscribe(Files.readAllBytes(path)));
+
+        int local = run("decompress", "--no-daemon", archive.getPath(), new File(folder.getRoot(), "local.out").getPath());
+        int forwarded = run("decompress", archive.getPath(), new File(folder.getRoot(), "forwarded.out").getPath());
+        assertEquals(ExitCodes.DATA_ERROR, local);
+        assertEquals(local, forwarded);
+        assertThat(err.toString(), containsString("Corrupted file " + archive.getPath()));
+        assertTrue(Daemon.runningPort(Daemon.portFile()) >= 0);
+    }
+
+    // A process listening on the port recorded for the daemon, as after the daemon was killed,
+    // answers the handshake without the token and must get neither the token nor the input
+    @Test
+    public void fallsBackWhenAnotherProcessListensOnThePort() throws Exception {
+        File archive = archive("impostor");
+        byte[] content = Files.readAllBytes(folder.getRoot().toPath().resolve("impostor.txt"));
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        AtomicInteger connections = new AtomicInteger();
+        try(ServerSocket impostor = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            byte[] token = new byte[16];
+            Files.write(Daemon.portFile(), (impostor.getLocalPort() + " " + Base64.getEncoder().encodeToString(token) + "\n").getBytes(StandardCharsets.US_ASCII));
+            Thread listener = new Thread(() -> {
+                while(true) {
+                    try(Socket socket = impostor.accept()) {
+                        connections.incrementAndGet();
+                        socket.getOutputStream().write(new byte[32]);
+                        socket.getInputStream().transferTo(received);
+                    } catch (IOException exc) {
+                        if(impostor.isClosed()) return;
+                    }
+                }
+            });
+            listener.start();
+
+            ByteArrayInputStream input = new ByteArrayInputStream(content);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            assertFalse(Daemon.forward(Daemon.portFile(), Daemon.COMPRESS, 1, input, output));
+            assertEquals(content.length, input.available());
+            assertEquals(0, output.size());
+
+            File decompressed = new File(folder.getRoot(), "impostor.out");
+            assertEquals(ExitCodes.SUCCESS, run("decompress", archive.getPath(), decompressed.getPath()));
+            assertArrayEquals(content, Files.readAllBytes(decompressed.toPath()));
+            assertEquals(-1, Daemon.runningPort(Daemon.portFile()));
+
+            impostor.close();
+            listener.join();
+        }
+        // Only the protocol version and the nonce of each connection
+        assertEquals(3 * 17, received.size());
+        assertEquals(3, connections.get());
+    }
+}
@@ -0,0 +1,46 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.algorithms.BadFileFormatException;
+import fr.istic.vandv.squeezer.algorithms.CompressionAlgorithm;
+import fr.istic.vandv.squeezer.algorithms.CompressionListener;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class FramedContainerTest {
+
+    // Decompresses every payload by throwing the given exception
+    private static CompressionAlgorithm failing(RuntimeException failure) {
+        return new CompressionAlgorithm() {
+            @Override
+            public int opcode() { return 0x7F; }
+
+            @Override
+            public String name() { return "FAILING"; }
+
+            @Override
+            public void compress(InputStream input, OutputStream output, CompressionListener listener) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void decompress(InputStream input, OutputStream output, CompressionListener listener) {
+                throw failure;
+            }
+
+            @Override
+            public long maxCompressedLength(long length) { return length; }
+        };
+    }
+
+    @Test(expected = BadFileFormatException.class)
+    public void reportsDecoderReadingPastItsTablesAsCorruption() throws Exception {
+        FramedContainer.decompressBlock(new byte[4], 16, failing(new ArrayIndexOutOfBoundsException(42)), CompressionListener.NONE);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void letsProgrammingErrorsPropagate() throws Exception {
+        FramedContainer.decompressBlock(new byte[4], 16, failing(new NullPointerException()), CompressionListener.NONE);
+    }
+}
@@ -0,0 +1,150 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.Application.ExitCodes;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import picocli.CommandLine;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// Round trips of content larger than 2 GiB, past every int sized count and offset. Takes a few
+// minutes and several GB of disk, run with: mvn test -Dtest=LargeFileTest -Dsqueezer.largeFiles=true
+public class LargeFileTest {
+
+    private static final long SIZE = 5L << 29;
+    private static final int CHUNK = 1 << 20;
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static File input;
+    private static byte[] digest;
+
+    @BeforeClass
+    public static void generate() throws Exception {
+        Assume.assumeTrue("Set squeezer.largeFiles to run", Boolean.getBoolean("squeezer.largeFiles"));
+        input = folder.newFile("large.bin");
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        try(OutputStream output = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(input.toPath()), CHUNK), md)) {
+            byte[] chunk = new byte[CHUNK];
+            for(long written = 0; written < SIZE; written += CHUNK) {
+                fill(chunk, (int) (written / CHUNK));
+                output.write(chunk);
+            }
+        }
+        digest = md.digest();
+    }
+
+    // Runs, repeated text and skewed bytes in turn, so every algorithm gets content it compresses
+    private static void fill(byte[] chunk, int index) {
+        Random random = new Random(index);
+        if(index % 3 == 0) {
+            for(int i = 0; i < chunk.length; ) {
+                int run = Math.min(chunk.length - i, 1 + random.nextInt(200));
+                byte value = (byte) random.nextInt(4);
+                for(int end = i + run; i < end; i++) chunk[i] = value;
+            }
+        }
+        else if(index % 3 == 1) {
+            String[] words = { "squeeze ", "block ", "archive ", "dictionary ", "code ", "frame " };
+            for(int i = 0; i < chunk.length; ) {
+                for(byte value : words[random.nextInt(words.length)].getBytes()) {
+                    if(i == chunk.length) break;
+                    chunk[i++] = value;
+                }
+            }
+        }
+        else {
+            for(int i = 0; i < chunk.length; i++) {
+                chunk[i] = (byte) Integer.numberOfTrailingZeros(random.nextInt() | 1 << 20);
+            }
+        }
+    }
+
+    private static int run(String... args) {
+        return new CommandLine(new Application()).execute(args);
+    }
+
+    private static byte[] digest(Path file) throws IOException, NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        try(InputStream stream = Files.newInputStream(file)) {
+            byte[] buffer = new byte[CHUNK];
+            int read;
+            while((read = stream.read(buffer)) > 0) {
+                md.update(buffer, 0, read);
+            }
+        }
+        return md.digest();
+    }
+
+    private static File roundTrip(String name, String... options) throws Exception {
+        File compressed = new File(folder.getRoot(), name + ".sqz");
+        File output = new File(folder.getRoot(), name + ".out");
+        String[] args = new String[options.length + 4];
+        args[0] = "compress";
+        args[1] = "--no-daemon";
+        System.arraycopy(options, 0, args, 2, options.length);
+        args[args.length - 2] = input.getPath();
+        args[args.length - 1] = compressed.getPath();
+        assertEquals(ExitCodes.SUCCESS, run(args));
+        assertEquals(ExitCodes.SUCCESS, run("decompress", "--no-daemon", compressed.getPath(), output.getPath()));
+        try {
+            assertArrayEquals(digest, digest(output.toPath()));
+        } finally {
+            Files.delete(output.toPath());
+        }
+        return compressed;
+    }
+
+    @Test
+    public void runLength() throws Exception {
+        Files.delete(roundTrip("rle", "-u", "RUN_LENGTH").toPath());
+    }
+
+    @Test
+    public void huffman() throws Exception {
+        Files.delete(roundTrip("huffman", "-u", "HUFFMAN").toPath());
+    }
+
+    @Test
+    public void lzw() throws Exception {
+        Files.delete(roundTrip("lzw", "-u", "LZW").toPath());
+    }
+
+    @Test
+    public void framedWithRangePastTwoGigabytes() throws Exception {
+        File compressed = roundTrip("framed", "-u", "AUTO", "--index", "--checksum");
+        assertEquals(ExitCodes.SUCCESS, run("test", compressed.getPath()));
+
+        long start = (1L << 31) + 12345;
+        int length = 3 * CHUNK;
+        File range = new File(folder.getRoot(), "range.out");
+        assertEquals(ExitCodes.SUCCESS, run("decompress", "--range", start + ":" + length, compressed.getPath(), range.getPath()));
+        ByteBuffer expected = ByteBuffer.allocate(length);
+        try(FileChannel channel = FileChannel.open(input.toPath())) {
+            while(expected.hasRemaining() && channel.read(expected, start + expected.position()) > 0) {
+                // Reads until full
+            }
+        }
+        assertArrayEquals(expected.array(), Files.readAllBytes(range.toPath()));
+        Files.delete(compressed.toPath());
+    }
+}
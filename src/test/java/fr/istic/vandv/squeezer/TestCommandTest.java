@@ -0,0 +1,98 @@
+package fr.istic.vandv.squeezer;
+
+import fr.istic.vandv.squeezer.Application.ExitCodes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import picocli.CommandLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+
+public class TestCommandTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private PrintStream systemOut;
+    private PrintStream systemErr;
+
+    @Before
+    public void redirect() {
+        systemOut = System.out;
+        systemErr = System.err;
+        System.setOut(new PrintStream(out, true));
+        System.setErr(new PrintStream(err, true));
+    }
+
+    @After
+    public void restore() {
+        System.setOut(systemOut);
+        System.setErr(systemErr);
+    }
+
+    private static int run(String... args) {
+        return new CommandLine(new Application()).execute(args);
+    }
+
+    // Framed Huffman archive of skewed content, so codes have several lengths
+    private File archive(String name, String... options) throws Exception {
+        byte[] content = new byte[20000];
+        Random random = new Random(42);
+        for(int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + Integer.numberOfTrailingZeros(random.nextInt() | 1 << 12));
+        }
+        File input = folder.newFile(name + ".txt");
+        Files.write(input.toPath(), content);
+        File output = new File(folder.getRoot(), name + ".sqz");
+        List<String> args = new ArrayList<>(List.of("compress", "--no-daemon", "-u", "HUFFMAN", "--block-size", "5000", input.getPath(), output.getPath()));
+        args.addAll(List.of(options));
+        assertEquals(ExitCodes.SUCCESS, run(args.toArray(new String[0])));
+        return output;
+    }
+
+    @Test
+    public void reportsCorruptedTableAndTestsTheOtherFiles() throws Exception {
+        File corrupted = archive("corrupted");
+        File valid = archive("valid");
+        byte[] bytes = Files.readAllBytes(corrupted.toPath());
+        // Huffman payload of the first block: symbol count, payload length, table size, then symbol and length pairs
+        int table = Application.SQZ_HEADER.length + 1 + FramedContainer.HEADER_LENGTH + FramedContainer.BLOCK_HEADER_LENGTH + 8 + 1;
+        for(int pair = 0; pair < 3; pair++) {
+            bytes[table + 2 * pair + 1] = 1;
+        }
+        Files.write(corrupted.toPath(), bytes);
+
+        assertEquals(ExitCodes.DATA_ERROR, run("test", corrupted.getPath(), valid.getPath()));
+        assertThat(err.toString(), containsString("Corrupted file " + corrupted.getPath()));
+        assertThat(out.toString(), containsString("OK: " + valid.getPath()));
+        assertThat(out.toString(), containsString("2 files tested, 1 failed"));
+    }
+
+    @Test
+    public void reportsCorruptedPayloadWithChecksums() throws Exception {
+        File corrupted = archive("payload", "--checksum");
+        byte[] bytes = Files.readAllBytes(corrupted.toPath());
+        // Flips bits all over the first block, past its header
+        for(int i = 100; i < 1000; i += 7) {
+            bytes[i] ^= 0x5A;
+        }
+        Files.write(corrupted.toPath(), bytes);
+
+        assertEquals(ExitCodes.DATA_ERROR, run("test", corrupted.getPath()));
+        assertThat(out.toString(), containsString("1 files tested, 1 failed"));
+    }
+}
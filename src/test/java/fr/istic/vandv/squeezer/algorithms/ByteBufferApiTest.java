@@ -0,0 +1,180 @@
+package fr.istic.vandv.squeezer.algorithms;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ByteBufferApiTest {
+
+    // Bytes around the remaining ones, which must be neither read nor written
+    private static final int MARGIN = 11;
+    private static final byte GUARD = (byte) 0xA7;
+
+    private enum Kind { HEAP, DIRECT, READ_ONLY, SLICE }
+
+    private static List<CompressionAlgorithm> algorithms() {
+        List<CompressionAlgorithm> algorithms = new ArrayList<>(AlgorithmRegistry.getDefault().algorithms());
+        algorithms.add(new HuffmanEncoding(1000, HuffmanEncoding.MIN_CODE_LENGTH));
+        algorithms.add(new HuffmanEncoding(777, HuffmanEncoding.MAX_CODE_LENGTH));
+        algorithms.add(new LZWCompression(LZWCompression.MIN_BITS, LZWCompression.ResetPolicy.RESET));
+        algorithms.add(new LZWCompression(LZWCompression.DEFAULT_MAX_BITS, LZWCompression.ResetPolicy.FREEZE));
+        return algorithms;
+    }
+
+    private static List<byte[]> inputs() {
+        Random random = new Random(25);
+        List<byte[]> inputs = new ArrayList<>();
+        inputs.add(new byte[0]);
+        inputs.add(new byte[] { 42 });
+        byte[] noise = new byte[70000];
+        random.nextBytes(noise);
+        inputs.add(noise);
+        // Worst case of run length compression: no two neighbours are equal
+        byte[] alternating = new byte[50000];
+        for(int i = 0; i < alternating.length; i++) alternating[i] = (byte) (i % 2 == 0? 'a' : 'b');
+        inputs.add(alternating);
+        byte[] runs = new byte[60000];
+        for(int i = 0; i < runs.length; i++) runs[i] = (byte) (i / 700);
+        inputs.add(runs);
+        byte[] text = "the quick brown fox jumps over the lazy dog ".repeat(1500).getBytes();
+        inputs.add(text);
+        return inputs;
+    }
+
+    // The content as the remaining bytes of a buffer of the given kind, with guards around
+    private static ByteBuffer source(byte[] content, Kind kind) {
+        ByteBuffer buffer = destination(content.length, kind == Kind.READ_ONLY? Kind.HEAP : kind);
+        buffer.duplicate().put(content);
+        return kind == Kind.READ_ONLY? buffer.asReadOnlyBuffer() : buffer;
+    }
+
+    // Room for the given length between the position and the limit, filled with guards like the margins
+    private static ByteBuffer destination(int length, Kind kind) {
+        int capacity = length + 2 * MARGIN;
+        ByteBuffer buffer = kind == Kind.DIRECT? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        while(buffer.hasRemaining()) buffer.put(GUARD);
+        buffer.position(MARGIN).limit(MARGIN + length);
+        // A slice starting at a non-zero offset of its backing array
+        return kind == Kind.SLICE? buffer.slice().position(0) : buffer;
+    }
+
+    private static byte[] remaining(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.duplicate().limit(to).position(from).get(bytes);
+        return bytes;
+    }
+
+    // Outside of [start, end) the buffer still holds the guards it was filled with
+    private static void assertGuarded(ByteBuffer buffer, int start, int end) {
+        ByteBuffer all = buffer.duplicate().clear();
+        for(int i = 0; i < all.capacity(); i++) {
+            if(i < start || i >= end) assertEquals("Byte " + i + " outside the written ones", GUARD, all.get(i));
+        }
+    }
+
+    private static byte[] streamCompress(CompressionAlgorithm algorithm, byte[] content) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        algorithm.compress(new ByteArrayInputStream(content), output);
+        return output.toByteArray();
+    }
+
+    @Test
+    public void roundTripsEveryKindOfBuffer() throws IOException {
+        for(CompressionAlgorithm algorithm : algorithms()) {
+            for(byte[] content : inputs()) {
+                byte[] expected = streamCompress(algorithm, content);
+                for(Kind kind : Kind.values()) {
+                    String name = algorithm.name() + " " + kind + " " + content.length;
+                    ByteBuffer source = source(content, kind);
+                    int sourceStart = source.position();
+                    ByteBuffer compressed = destination((int) algorithm.maxCompressedLength(content.length), kind == Kind.READ_ONLY? Kind.HEAP : kind);
+                    int compressedStart = compressed.position();
+                    algorithm.compress(source, compressed);
+                    assertEquals(name, sourceStart + content.length, source.position());
+                    assertEquals(name, source.limit(), source.position());
+                    byte[] payload = remaining(compressed, compressedStart, compressed.position());
+                    assertArrayEquals(name, expected, payload);
+                    assertGuarded(compressed, compressedStart, compressed.position());
+
+                    ByteBuffer payloadSource = source(payload, kind);
+                    ByteBuffer decompressed = destination(content.length, kind == Kind.READ_ONLY? Kind.DIRECT : kind);
+                    int decompressedStart = decompressed.position();
+                    algorithm.decompress(payloadSource, decompressed);
+                    assertEquals(name, payloadSource.limit(), payloadSource.position());
+                    assertEquals(name, decompressedStart + content.length, decompressed.position());
+                    assertArrayEquals(name, content, remaining(decompressed, decompressedStart, decompressed.position()));
+                    assertGuarded(decompressed, decompressedStart, decompressed.position());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fitsInMaxCompressedLength() throws IOException {
+        for(CompressionAlgorithm algorithm : algorithms()) {
+            for(byte[] content : inputs()) {
+                long bound = algorithm.maxCompressedLength(content.length);
+                assertTrue(algorithm.name() + " " + content.length, streamCompress(algorithm, content).length <= bound);
+                // Exactly the bound, so writing past it overflows
+                ByteBuffer destination = ByteBuffer.allocate((int) bound);
+                algorithm.compress(ByteBuffer.wrap(content), destination);
+            }
+        }
+    }
+
+    @Test
+    public void leavesPositionsWhenTheDestinationIsTooSmall() throws IOException {
+        for(CompressionAlgorithm algorithm : algorithms()) {
+            for(byte[] content : inputs()) {
+                if(content.length == 0) continue;
+                byte[] payload = streamCompress(algorithm, content);
+                for(Kind kind : Kind.values()) {
+                    String name = algorithm.name() + " " + kind + " " + content.length;
+                    Kind writable = kind == Kind.READ_ONLY? Kind.HEAP : kind;
+
+                    ByteBuffer source = source(content, kind);
+                    int sourcePosition = source.position();
+                    ByteBuffer compressed = destination(payload.length - 1, writable);
+                    int compressedPosition = compressed.position();
+                    try {
+                        algorithm.compress(source, compressed);
+                        fail(name + " compressed into too small a buffer");
+                    } catch (BufferOverflowException expected) {
+                        assertEquals(name, sourcePosition, source.position());
+                        assertEquals(name, compressedPosition, compressed.position());
+                    }
+
+                    ByteBuffer payloadSource = source(payload, kind);
+                    int payloadPosition = payloadSource.position();
+                    ByteBuffer decompressed = destination(content.length - 1, writable);
+                    int decompressedPosition = decompressed.position();
+                    try {
+                        algorithm.decompress(payloadSource, decompressed);
+                        fail(name + " decompressed into too small a buffer");
+                    } catch (BufferOverflowException expected) {
+                        assertEquals(name, payloadPosition, payloadSource.position());
+                        assertEquals(name, decompressedPosition, decompressed.position());
+                    }
+
+                    // Retrying with enough room succeeds
+                    ByteBuffer retry = destination(content.length, writable);
+                    int retryPosition = retry.position();
+                    algorithm.decompress(payloadSource, retry);
+                    assertArrayEquals(name, content, remaining(retry, retryPosition, retry.position()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package fr.istic.vandv.squeezer.algorithms;
+
+import fr.istic.vandv.squeezer.algorithms.HuffmanEncoding.CodeLengths;
+import org.junit.Test;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CodeLengthsTest {
+
+    private static final int[] LIMITS = { HuffmanEncoding.MIN_CODE_LENGTH, 9, 12, HuffmanEncoding.DEFAULT_MAX_CODE_LENGTH, 24, HuffmanEncoding.MAX_CODE_LENGTH };
+
+    private static int[] lengths(long[] frequencies, int limit) {
+        int[] lengths = new int[256];
+        new CodeLengths(limit).compute(frequencies, lengths);
+        return lengths;
+    }
+
+    // Lengths of an unlimited Huffman code, from the depth of each symbol in the tree
+    private static int[] huffman(long[] frequencies) {
+        int[] lengths = new int[256];
+        int[] parent = new int[2 * 256];
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0]? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        for(int symbol = 0; symbol < 256; symbol++) {
+            if(frequencies[symbol] > 0) queue.add(new long[] { frequencies[symbol], symbol });
+        }
+        if(queue.size() == 1) {
+            lengths[(int) queue.remove()[1]] = 1;
+            return lengths;
+        }
+        int next = 256;
+        while(queue.size() > 1) {
+            long[] first = queue.remove();
+            long[] second = queue.remove();
+            parent[(int) first[1]] = next;
+            parent[(int) second[1]] = next;
+            queue.add(new long[] { first[0] + second[0], next++ });
+        }
+        int root = next - 1;
+        for(int symbol = 0; symbol < 256; symbol++) {
+            if(frequencies[symbol] == 0) continue;
+            for(int node = symbol; node != root; node = parent[node]) lengths[symbol]++;
+        }
+        return lengths;
+    }
+
+    private static long cost(long[] frequencies, int[] lengths) {
+        long cost = 0;
+        for(int symbol = 0; symbol < 256; symbol++) cost += frequencies[symbol] * lengths[symbol];
+        return cost;
+    }
+
+    private static int max(int[] lengths) {
+        int max = 0;
+        for(int length : lengths) max = Math.max(max, length);
+        return max;
+    }
+
+    // Every symbol with a frequency has a code no longer than the limit, and they form a prefix code
+    private static void assertValid(long[] frequencies, int[] lengths, int limit) {
+        long kraft = 0;
+        for(int symbol = 0; symbol < 256; symbol++) {
+            assertEquals("Symbol " + symbol + " has a code iff it occurs", frequencies[symbol] > 0, lengths[symbol] > 0);
+            assertTrue("Length " + lengths[symbol] + " over " + limit, lengths[symbol] <= limit);
+            if(lengths[symbol] > 0) kraft += 1L << (limit - lengths[symbol]);
+        }
+        assertTrue("Kraft sum over 1", kraft <= 1L << limit);
+    }
+
+    // Fibonacci numbers up to the 92nd still add up in a long
+    private static long[] fibonacci(int symbols) {
+        long[] frequencies = new long[256];
+        long previous = 1;
+        long current = 1;
+        for(int i = 0; i < symbols; i++) {
+            frequencies[i * 3 % 256] = current;
+            long next = previous + current;
+            previous = current;
+            current = next;
+        }
+        return frequencies;
+    }
+
+    @Test
+    public void givesOneBitToASingleSymbol() {
+        long[] frequencies = new long[256];
+        frequencies['x'] = 1000;
+        for(int limit : LIMITS) {
+            int[] lengths = lengths(frequencies, limit);
+            assertEquals(1, lengths['x']);
+            assertEquals(1, max(lengths));
+        }
+    }
+
+    @Test
+    public void givesOneBitToEachOfTwoSymbols() {
+        long[] frequencies = new long[256];
+        frequencies[0] = 1;
+        frequencies[255] = 1L << 40;
+        for(int limit : LIMITS) {
+            int[] lengths = lengths(frequencies, limit);
+            assertEquals(1, lengths[0]);
+            assertEquals(1, lengths[255]);
+        }
+    }
+
+    private static long[] everyByte() {
+        long[] frequencies = new long[256];
+        for(int symbol = 0; symbol < 256; symbol++) frequencies[symbol] = 1L << (symbol % 40);
+        return frequencies;
+    }
+
+    @Test
+    public void givesEightBitsToEveryByteAtTheLowestLimit() {
+        long[] frequencies = everyByte();
+        int[] lengths = lengths(frequencies, HuffmanEncoding.MIN_CODE_LENGTH);
+        for(int symbol = 0; symbol < 256; symbol++) {
+            assertEquals(8, lengths[symbol]);
+        }
+    }
+
+    @Test
+    public void limitsFibonacciFrequencies() {
+        // Unlimited Huffman codes of n Fibonacci frequencies are n - 1 bits long
+        for(int symbols : new int[] { 10, 20, 40, 64, 90 }) {
+            long[] frequencies = fibonacci(symbols);
+            int[] unlimited = huffman(frequencies);
+            assertEquals(symbols - 1, max(unlimited));
+            for(int limit : LIMITS) {
+                int[] lengths = lengths(frequencies, limit);
+                assertValid(frequencies, lengths, limit);
+                if(symbols - 1 <= limit) {
+                    assertEquals(cost(frequencies, unlimited), cost(frequencies, lengths));
+                }
+                else {
+                    assertEquals(limit, max(lengths));
+                    assertTrue(cost(frequencies, lengths) > cost(frequencies, unlimited));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesHuffmanWhenTheLimitDoesNotBind() {
+        Random random = new Random(22);
+        for(int run = 0; run < 3000; run++) {
+            long[] frequencies = new long[256];
+            int symbols = 1 + random.nextInt(256);
+            int skew = random.nextInt(40);
+            for(int i = 0; i < symbols; i++) {
+                frequencies[random.nextInt(256)] = 1 + (random.nextLong() >>> (24 + random.nextInt(skew + 1)));
+            }
+            int[] unlimited = huffman(frequencies);
+            for(int limit : LIMITS) {
+                int[] lengths = lengths(frequencies, limit);
+                assertValid(frequencies, lengths, limit);
+                long cost = cost(frequencies, lengths);
+                if(max(unlimited) <= limit) {
+                    assertEquals("Run " + run + ", limit " + limit, cost(frequencies, unlimited), cost);
+                }
+                else {
+                    assertTrue(cost >= cost(frequencies, unlimited));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reusesTheInstanceForSeveralBlocks() {
+        CodeLengths codeLengths = new CodeLengths(HuffmanEncoding.DEFAULT_MAX_CODE_LENGTH);
+        int[] lengths = new int[256];
+        for(int symbols : new int[] { 90, 2, 256, 40, 1 }) {
+            long[] frequencies = symbols == 256? everyByte() : fibonacci(symbols);
+            codeLengths.compute(frequencies, lengths);
+            assertValid(frequencies, lengths, HuffmanEncoding.DEFAULT_MAX_CODE_LENGTH);
+            assertArrayEquals(lengths(frequencies, HuffmanEncoding.DEFAULT_MAX_CODE_LENGTH), lengths);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package fr.istic.vandv.squeezer.algorithms;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+// Decompressing arbitrary corruption of a payload must fail with an IOException, or a
+// BufferOverflowException when a buffer destination is too small, never with another exception.
+public class CorruptPayloadTest {
+
+    private static final int MUTATIONS = 3000;
+    // Mutations are made in the first bytes half of the time, where block headers and tables are
+    private static final int HEADER_BYTES = 1100;
+
+    private static byte[] content(Random random) {
+        // Skewed over every byte value, so Huffman codes have many lengths
+        byte[] content = new byte[40000];
+        for(int i = 0; i < content.length; i++) {
+            int value = Integer.numberOfTrailingZeros(random.nextInt() | 1 << 16) * 16 + random.nextInt(16);
+            content[i] = (byte) (i % 9 == 0? random.nextInt(256) : value);
+        }
+        return content;
+    }
+
+    @Test
+    public void everyAlgorithmRejectsCorruptPayloads() throws IOException {
+        Random random = new Random(2024);
+        byte[] content = content(random);
+        for(CompressionAlgorithm algorithm : AlgorithmRegistry.getDefault().algorithms()) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            algorithm.compress(new ByteArrayInputStream(content), compressed);
+            byte[] payload = compressed.toByteArray();
+            for(int i = 0; i < MUTATIONS; i++) {
+                byte[] corrupted = payload.clone();
+                int range = i % 2 == 0? Math.min(HEADER_BYTES, corrupted.length) : corrupted.length;
+                for(int changes = 1 + random.nextInt(3); changes > 0; changes--) {
+                    int position = random.nextInt(range);
+                    if(random.nextBoolean()) {
+                        corrupted[position] ^= 1 << random.nextInt(8);
+                    }
+                    else {
+                        corrupted[position] = (byte) random.nextInt(256);
+                    }
+                }
+                decompress(algorithm, corrupted, i % 3, content.length);
+            }
+        }
+    }
+
+    // Through streams, heap buffers or direct buffers
+    private static void decompress(CompressionAlgorithm algorithm, byte[] corrupted, int kind, int length) {
+        try {
+            if(kind == 0) {
+                algorithm.decompress(new ByteArrayInputStream(corrupted), new ByteArrayOutputStream());
+            }
+            else if(kind == 1) {
+                algorithm.decompress(ByteBuffer.wrap(corrupted), ByteBuffer.allocate(length));
+            }
+            else {
+                ByteBuffer source = ByteBuffer.allocateDirect(corrupted.length).put(corrupted).flip();
+                algorithm.decompress(source, ByteBuffer.allocateDirect(length));
+            }
+        } catch (IOException | BufferOverflowException expected) {
+            // Detected
+        } catch (RuntimeException exc) {
+            throw new AssertionError(algorithm.name() + " failed on a corrupt payload", exc);
+        }
+    }
+}
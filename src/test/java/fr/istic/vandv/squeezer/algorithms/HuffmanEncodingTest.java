@@ -0,0 +1,61 @@
+package fr.istic.vandv.squeezer.algorithms;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThrows;
+
+public class HuffmanEncodingTest {
+
+    private final HuffmanEncoding huffman = new HuffmanEncoding();
+
+    // Block of 4 symbols in 1 payload byte, with a table of the given symbol and code length pairs
+    private static byte[] block(int... table) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        block.writeBytes(new byte[] { 0, 0, 0, 4, 0, 0, 0, 1, (byte) (table.length / 2 - 1) });
+        for(int value : table) {
+            block.write(value);
+        }
+        block.write(0);
+        return block.toByteArray();
+    }
+
+    @Test
+    public void rejectsOversubscribedTable() {
+        // Three codes of one bit, the third one starts past the end of the lookup table
+        byte[] payload = block('a', 1, 'b', 1, 'c', 1, 'd', 11);
+        assertThrows(BadFileFormatException.class, () -> huffman.decompress(new ByteArrayInputStream(payload), new ByteArrayOutputStream()));
+        assertThrows(BadFileFormatException.class, () -> huffman.decompress(ByteBuffer.wrap(payload), ByteBuffer.allocate(16)));
+    }
+
+    @Test
+    public void rejectsOversubscribedLongCodes() {
+        // Lengths 1, 2, 3, ..., 56 and three of 57: one code too many at the longest length
+        int[] table = new int[2 * 59];
+        for(int i = 0; i < 59; i++) {
+            table[2 * i] = i;
+            table[2 * i + 1] = Math.min(i + 1, 57);
+        }
+        byte[] payload = block(table);
+        assertThrows(BadFileFormatException.class, () -> huffman.decompress(new ByteArrayInputStream(payload), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void rejectsSymbolGivenTwice() {
+        byte[] payload = block('a', 1, 'a', 1);
+        assertThrows(BadFileFormatException.class, () -> huffman.decompress(new ByteArrayInputStream(payload), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void acceptsIncompleteTable() throws Exception {
+        // A single code of one bit, symbol 'a' four times
+        byte[] payload = block('a', 1);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        huffman.decompress(new ByteArrayInputStream(payload), output);
+        assertArrayEquals("aaaa".getBytes(), output.toByteArray());
+    }
+}
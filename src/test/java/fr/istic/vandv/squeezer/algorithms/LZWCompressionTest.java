@@ -0,0 +1,197 @@
+package fr.istic.vandv.squeezer.algorithms;
+
+import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitStringReader;
+import fr.istic.vandv.squeezer.algorithms.bitmanipulation.BitStringWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class LZWCompressionTest {
+
+    private static byte[] compress(CompressionAlgorithm algorithm, byte[] content) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        algorithm.compress(new ByteArrayInputStream(content), output);
+        return output.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] payload) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new LZWCompression().decompress(new ByteArrayInputStream(payload), output);
+        return output.toByteArray();
+    }
+
+    // Decodes the payload from a stream and from a heap buffer, which do not share the bit reader
+    private static void assertRoundTrip(String message, CompressionAlgorithm algorithm, byte[] content) throws IOException {
+        byte[] payload = compress(algorithm, content);
+        assertArrayEquals(message, content, decompress(payload));
+        ByteBuffer destination = ByteBuffer.allocate(content.length);
+        new LZWCompression().decompress(ByteBuffer.wrap(payload), destination);
+        assertArrayEquals(message, content, destination.array());
+    }
+
+    private static byte[] random(int length, int seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    // Walks the codes of a payload tracking the dictionary size like the decoder, without the strings
+    private static int clearCodes(byte[] payload) throws IOException {
+        int maxBits = payload[0];
+        int maxCount = 1 << maxBits;
+        BitStringReader reader = new BitStringReader(payload, 1, payload.length - 1);
+        int count = 257;
+        boolean first = true;
+        int clears = 0;
+        int code;
+        while((code = reader.read(Math.min(32 - Integer.numberOfLeadingZeros(first || count == maxCount ? count : count + 1), maxBits))) >= 0) {
+            if(code == LZWCompression.CLEAR_CODE) {
+                clears++;
+                count = 257;
+                first = true;
+                continue;
+            }
+            if(!first && count < maxCount) count++;
+            first = false;
+        }
+        return clears;
+    }
+
+    // Codes written at the given widths after the width byte
+    private static byte[] payload(int maxBits, int[] codes, int[] widths) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        output.write(maxBits);
+        BitStringWriter writer = new BitStringWriter(output);
+        for(int i = 0; i < codes.length; i++) writer.write(codes[i], widths[i]);
+        writer.flush();
+        return output.toByteArray();
+    }
+
+    @Test
+    public void roundTripsAroundEveryWidthChange() throws IOException {
+        // Random bytes add one entry for about every byte, so every prefix length in this range stops
+        // a few codes before or after the 9 to 10 and 10 to 11 bits changes, and after the dictionary is full
+        byte[] content = random(2600, 3);
+        for(int maxBits = LZWCompression.MIN_BITS; maxBits <= LZWCompression.MIN_BITS + 2; maxBits++) {
+            for(LZWCompression.ResetPolicy policy : LZWCompression.ResetPolicy.values()) {
+                LZWCompression lzw = new LZWCompression(maxBits, policy);
+                for(int length = 0; length <= content.length; length++) {
+                    byte[] prefix = Arrays.copyOf(content, length);
+                    assertRoundTrip(maxBits + " bits " + policy + " " + length + " bytes", lzw, prefix);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsUpToTheMaximumWidth() throws IOException {
+        // Enough entries to fill the widest dictionaries tested, wider ones only reach the same widths
+        byte[] content = random(300000, 4);
+        for(int maxBits = LZWCompression.MIN_BITS; maxBits <= 17; maxBits++) {
+            for(LZWCompression.ResetPolicy policy : LZWCompression.ResetPolicy.values()) {
+                LZWCompression lzw = new LZWCompression(maxBits, policy);
+                byte[] payload = compress(lzw, content);
+                assertEquals(maxBits, payload[0]);
+                assertRoundTrip(maxBits + " bits " + policy, lzw, content);
+            }
+        }
+        assertRoundTrip("Widest codes", new LZWCompression(LZWCompression.MAX_BITS, LZWCompression.ResetPolicy.FREEZE), content);
+    }
+
+    @Test
+    public void packsCodesAtTheWidthOfTheDictionary() throws IOException {
+        // Steps of a different odd size in each run of 256 bytes, so no pair of neighbours is seen twice
+        // and every byte is written as its own code, the code of index i with the dictionary holding
+        // 257 + i entries: 9 bits up to 511 entries, 10 bits up to 1023 and 11 bits after
+        byte[] content = new byte[1500];
+        for(int i = 1; i < content.length; i++) content[i] = (byte) (content[i - 1] + 2 * (i / 256) + 1);
+        int bits = 0;
+        for(int i = 0; i < content.length; i++) bits += 32 - Integer.numberOfLeadingZeros(257 + i);
+        assertEquals(255 * 9 + 512 * 10 + 733 * 11, bits);
+        byte[] payload = compress(new LZWCompression(12, LZWCompression.ResetPolicy.FREEZE), content);
+        assertEquals(1 + (bits + 7) / 8, payload.length);
+        assertArrayEquals(content, decompress(payload));
+    }
+
+    @Test
+    public void freezeNeverClearsTheDictionary() throws IOException {
+        LZWCompression lzw = new LZWCompression(LZWCompression.MIN_BITS, LZWCompression.ResetPolicy.FREEZE);
+        byte[] content = random(20000, 5);
+        assertEquals(0, clearCodes(compress(lzw, content)));
+        assertRoundTrip("Frozen", lzw, content);
+    }
+
+    @Test
+    public void resetClearsEachFullDictionary() throws IOException {
+        LZWCompression lzw = new LZWCompression(LZWCompression.MIN_BITS, LZWCompression.ResetPolicy.RESET);
+        // About one entry per byte, so the 255 entries of 9 bits dictionaries fill dozens of times
+        byte[] content = random(20000, 6);
+        int clears = clearCodes(compress(lzw, content));
+        assertTrue("Got " + clears + " clear codes", clears >= 20000 / 255 / 2);
+        assertRoundTrip("Reset", lzw, content);
+    }
+
+    @Test
+    public void resetOnRatioDropClearsWhenTheContentChanges() throws IOException {
+        LZWCompression lzw = new LZWCompression(10, LZWCompression.ResetPolicy.RESET_ON_RATIO_DROP);
+        // The dictionary fills with the phrases of the text, then random bytes compress far worse
+        byte[] text = "a phrase repeated until the dictionary is full, ".repeat(2000).getBytes();
+        assertEquals(0, clearCodes(compress(lzw, text)));
+        byte[] content = Arrays.copyOf(text, text.length + 60000);
+        System.arraycopy(random(60000, 7), 0, content, text.length, 60000);
+        assertTrue(clearCodes(compress(lzw, content)) > 0);
+        assertRoundTrip("Ratio drop", lzw, content);
+    }
+
+    @Test
+    public void decodesClearCodes() throws IOException {
+        // "ab" adds 257 for "ab", then after the clear code 257 is free again and "ba" takes it,
+        // so the last 257 means "ba"
+        int[] codes = { 'a', 'b', LZWCompression.CLEAR_CODE, 'b', 'a', 257 };
+        int[] widths = { 9, 9, 9, 9, 9, 9 };
+        assertArrayEquals("abbaba".getBytes(), decompress(payload(LZWCompression.MIN_BITS, codes, widths)));
+    }
+
+    @Test
+    public void decodesCodeBeingDefined() throws IOException {
+        // 257 is read right after 'a', before the decoder adds it: it must be "a" followed by its own
+        // first byte, then 258 is "aa" followed by its own first byte
+        int[] codes = { 'a', 257, 258 };
+        int[] widths = { 9, 9, 9 };
+        assertArrayEquals("aaaaaa".getBytes(), decompress(payload(LZWCompression.MIN_BITS, codes, widths)));
+    }
+
+    @Test
+    public void roundTripsRepeatedPatterns() throws IOException {
+        // Runs of one byte and of alternating bytes make the encoder write the code it has just added
+        String[] patterns = { "a", "ab", "abc", "aab" };
+        for(String pattern : patterns) {
+            for(int repeats = 1; repeats <= 3000; repeats += repeats < 40 ? 1 : 997) {
+                byte[] content = pattern.repeat(repeats).getBytes();
+                for(LZWCompression.ResetPolicy policy : LZWCompression.ResetPolicy.values()) {
+                    assertRoundTrip(pattern + " " + repeats + " " + policy, new LZWCompression(LZWCompression.MIN_BITS, policy), content);
+                }
+            }
+        }
+        // Phrases of thousands of bytes, split across flushes of the decoder output
+        byte[] run = new byte[1 << 22];
+        assertRoundTrip("Long run", new LZWCompression(), run);
+    }
+
+    @Test
+    public void rejectsCodePastTheOneBeingDefined() {
+        int[] codes = { 'a', 258 };
+        int[] widths = { 9, 9 };
+        assertThrows(BadFileFormatException.class, () -> decompress(payload(LZWCompression.MIN_BITS, codes, widths)));
+    }
+}
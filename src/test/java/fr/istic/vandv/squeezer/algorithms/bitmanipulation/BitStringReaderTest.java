@@ -0,0 +1,195 @@
+package fr.istic.vandv.squeezer.algorithms.bitmanipulation;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BitStringReaderTest {
+
+    // Each way of giving the reader its content: an array slice, a stream filling the smallest buffer
+    // and a stream returning a few bytes per read
+    private static final List<Function<byte[], BitStringReader>> SOURCES = List.of(
+            content -> {
+                byte[] array = new byte[content.length + 5];
+                System.arraycopy(content, 0, array, 3, content.length);
+                array[0] = array[1] = array[2] = (byte) 0xFF;
+                array[array.length - 2] = array[array.length - 1] = (byte) 0xFF;
+                return new BitStringReader(array, 3, content.length);
+            },
+            content -> new BitStringReader(new ByteArrayInputStream(content), new byte[Long.BYTES]),
+            content -> new BitStringReader(new ByteArrayInputStream(content) {
+                @Override
+                public synchronized int read(byte[] bytes, int offset, int length) {
+                    return super.read(bytes, offset, Math.min(length, 3));
+                }
+            }, new byte[16]));
+
+    private static byte[] random(int length, long seed) {
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+    // The bits of the content from the given bit, most significant first
+    private static long bits(byte[] content, long from, int count) {
+        long result = 0;
+        for(long i = from; i < from + count; i++) {
+            result = result << 1 | (content[(int) (i >>> 3)] >>> (7 - (i & 7)) & 1);
+        }
+        return result;
+    }
+
+    @Test
+    public void peeksAndConsumesAcrossWordBoundaries() throws IOException {
+        byte[] content = random(200, 1);
+        for(Function<byte[], BitStringReader> source : SOURCES) {
+            BitStringReader reader = source.apply(content);
+            long position = 0;
+            // Every width in turn, so consumed bits end at every offset of the 64 bit words
+            for(int width = 1; position + width <= 8L * content.length; width = width % BitStringReader.MAX_BITS + 1) {
+                assertEquals("Bits at " + position, bits(content, position, width), reader.peek(width));
+                reader.consume(width);
+                position += width;
+            }
+        }
+    }
+
+    @Test
+    public void peeksUpToMaxBitsAtEveryOffset() throws IOException {
+        byte[] content = random(32, 2);
+        for(Function<byte[], BitStringReader> source : SOURCES) {
+            for(int offset = 0; offset < 64; offset++) {
+                BitStringReader reader = source.apply(content);
+                reader.consume(offset / 2);
+                reader.consume(offset - offset / 2);
+                assertEquals(bits(content, offset, BitStringReader.MAX_BITS), reader.peek(BitStringReader.MAX_BITS));
+                // Peeking again reads nothing more
+                assertEquals(bits(content, offset, BitStringReader.MAX_BITS), reader.peek(BitStringReader.MAX_BITS));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsMoreThanMaxBits() throws IOException {
+        BitStringReader reader = SOURCES.get(0).apply(new byte[16]);
+        for(int bits : new int[] { 0, BitStringReader.MAX_BITS + 1 }) {
+            try {
+                reader.peek(bits);
+                fail("Peeked " + bits + " bits");
+            } catch (IllegalArgumentException expected) {
+                // Out of range
+            }
+        }
+        try {
+            reader.consume(BitStringReader.MAX_BITS + 1);
+            fail("Consumed " + (BitStringReader.MAX_BITS + 1) + " bits");
+        } catch (IllegalArgumentException expected) {
+            // Out of range
+        }
+    }
+
+    @Test
+    public void countsAvailableBits() throws IOException {
+        for(Function<byte[], BitStringReader> source : SOURCES) {
+            BitStringReader reader = source.apply(random(3, 3));
+            assertEquals(0, reader.available());
+            reader.peek(1);
+            assertEquals(24, reader.available());
+            reader.consume(5);
+            assertEquals(19, reader.available());
+            reader.consume(19);
+            assertEquals(0, reader.available());
+        }
+        BitStringReader reader = SOURCES.get(0).apply(random(20, 4));
+        reader.peek(1);
+        assertEquals(64, reader.available());
+        reader.consume(10);
+        assertEquals(54, reader.available());
+        // Refills whole bytes
+        reader.peek(BitStringReader.MAX_BITS);
+        assertEquals(62, reader.available());
+    }
+
+    @Test
+    public void padsTheEndWithZerosThatCanNotBeConsumed() throws IOException {
+        for(Function<byte[], BitStringReader> source : SOURCES) {
+            BitStringReader reader = source.apply(new byte[] { (byte) 0xFF, (byte) 0xFF });
+            reader.consume(13);
+            assertEquals(0b11100000, reader.peek(8));
+            assertEquals(0b111L << 54, reader.peek(BitStringReader.MAX_BITS));
+            assertEquals(-1, reader.read(4));
+            assertEquals(0b111, reader.read(3));
+            assertEquals(0, reader.peek(BitStringReader.MAX_BITS));
+            assertEquals(-1, reader.read(1));
+            reader.consume(0);
+            try {
+                reader.consume(1);
+                fail("Consumed past the end");
+            } catch (EOFException expected) {
+                // Only padding is left
+            }
+        }
+    }
+
+    @Test
+    public void readsEmptyContent() throws IOException {
+        for(Function<byte[], BitStringReader> source : SOURCES) {
+            BitStringReader reader = source.apply(new byte[0]);
+            assertEquals(0, reader.peek(BitStringReader.MAX_BITS));
+            assertEquals(-1, reader.read(32));
+            assertEquals(0, reader.available());
+        }
+    }
+
+    @Test
+    public void readsWhatTheWriterWrote() throws IOException {
+        Random random = new Random(5);
+        int[] widths = new int[5000];
+        long[] values = new long[widths.length];
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BitStringWriter writer = new BitStringWriter(output);
+        for(int i = 0; i < widths.length; i++) {
+            widths[i] = 1 + random.nextInt(BitStringWriter.MAX_BITS);
+            values[i] = random.nextLong() >>> (64 - widths[i]);
+            writer.write(values[i], widths[i]);
+        }
+        int lastBits = writer.flush();
+        byte[] content = output.toByteArray();
+        long total = 0;
+        for(int width : widths) total += width;
+        assertEquals((total + 7) / 8, content.length);
+        assertEquals(total % 8 == 0? 0 : total % 8, lastBits % 8);
+
+        for(Function<byte[], BitStringReader> source : SOURCES) {
+            BitStringReader reader = source.apply(content);
+            for(int i = 0; i < widths.length; i++) {
+                assertEquals("Value " + i, values[i], reader.peek(widths[i]));
+                reader.consume(widths[i]);
+            }
+            assertEquals(0, reader.peek(BitStringReader.MAX_BITS));
+        }
+    }
+
+    @Test
+    public void leavesTheStreamAfterTheChunksItRead() throws IOException {
+        InputStream input = new ByteArrayInputStream(random(40, 6));
+        BitStringReader reader = new BitStringReader(input, new byte[Long.BYTES]);
+        reader.consume(8);
+        assertEquals(32, input.available());
+        // Only refills once fewer bits than peeked are left
+        reader.peek(56);
+        assertEquals(32, input.available());
+        reader.peek(BitStringReader.MAX_BITS);
+        assertEquals(24, input.available());
+    }
+}
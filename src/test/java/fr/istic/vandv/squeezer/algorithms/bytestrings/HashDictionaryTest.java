@@ -0,0 +1,51 @@
+package fr.istic.vandv.squeezer.algorithms.bytestrings;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashDictionaryTest {
+
+    private static final int FIRST_INDEX = 257;
+
+    @Test
+    public void widestDictionaryStartsSmall() {
+        HashDictionary dictionary = new HashDictionary(FIRST_INDEX, HashDictionary.MAX_COUNT);
+        assertTrue("Got " + dictionary.capacity() + " slots", dictionary.capacity() <= 1 << 13);
+    }
+
+    @Test
+    public void growsAndKeepsEveryEntry() {
+        HashDictionary dictionary = new HashDictionary(FIRST_INDEX, HashDictionary.MAX_COUNT);
+        // Each entry extends the previous one, or a single byte every 1000 entries
+        int entries = 200000;
+        for(int i = 0; i < entries; i++) {
+            int prefix = i % 1000 == 0 ? i / 1000 % 256 : FIRST_INDEX + i - 1;
+            assertEquals(FIRST_INDEX + i, dictionary.expand(prefix, i & 0xFF));
+            // Never more than half full
+            assertTrue(2 * (i + 1) <= dictionary.capacity());
+        }
+        assertTrue(dictionary.capacity() <= 4 * entries);
+        for(int i = 0; i < entries; i++) {
+            int prefix = i % 1000 == 0 ? i / 1000 % 256 : FIRST_INDEX + i - 1;
+            assertEquals(FIRST_INDEX + i, dictionary.step(prefix, i & 0xFF));
+            assertEquals(-1, dictionary.step(prefix, (i + 1) & 0xFF));
+        }
+    }
+
+    @Test
+    public void fillsUpToTheMaximumCount() {
+        int maxCount = 1 << 12;
+        HashDictionary dictionary = new HashDictionary(FIRST_INDEX, maxCount);
+        for(int i = FIRST_INDEX; !dictionary.isFull(); i++) {
+            dictionary.expand(i == FIRST_INDEX ? 'a' : i - 1, 7);
+        }
+        assertEquals(maxCount, dictionary.count());
+        assertEquals(maxCount - 1, dictionary.step(maxCount - 2, 7));
+        assertTrue(dictionary.capacity() <= 2 * maxCount);
+        dictionary.reset();
+        assertEquals(FIRST_INDEX, dictionary.count());
+        assertEquals(-1, dictionary.step('a', 7));
+    }
+}
@@ -0,0 +1,61 @@
+package fr.istic.vandv.squeezer.algorithms.bytestrings;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class PhraseTableTest {
+
+    private static final int FIRST_INDEX = 257;
+
+    private static byte[] string(PhraseTable table, int index) {
+        byte[] buffer = new byte[table.length(index) + 2];
+        assertEquals(table.length(index), table.copy(index, buffer, 1));
+        byte[] string = new byte[buffer.length - 2];
+        System.arraycopy(buffer, 1, string, 0, string.length);
+        return string;
+    }
+
+    @Test
+    public void buildsStringsFromTheirPrefixes() {
+        PhraseTable table = new PhraseTable(FIRST_INDEX, 1 << 9);
+        assertArrayEquals("x".getBytes(), string(table, 'x'));
+        int ab = table.expand('a', 'b');
+        int abc = table.expand(ab, 'c');
+        assertEquals(FIRST_INDEX, ab);
+        assertEquals(3, table.length(abc));
+        assertArrayEquals("abc".getBytes(), string(table, abc));
+    }
+
+    @Test
+    public void extendsTheLastEntryWithItsOwnFirstByte() {
+        // What the decoder adds for a code read before it is defined: "a", "aa", "aaa" and so on
+        PhraseTable table = new PhraseTable(FIRST_INDEX, 1 << 12);
+        int previous = 'a';
+        for(int length = 2; length <= 100; length++) {
+            byte[] string = string(table, previous);
+            previous = table.expand(previous, string[0]);
+            assertArrayEquals("a".repeat(length).getBytes(), string(table, previous));
+        }
+    }
+
+    @Test
+    public void growsUpToTheMaximumCount() {
+        int maxCount = 1 << 14;
+        PhraseTable table = new PhraseTable(FIRST_INDEX, maxCount);
+        for(int i = FIRST_INDEX; i < maxCount; i++) {
+            table.expand(i == FIRST_INDEX ? 'q' : i - 1, i & 0xFF);
+        }
+        assertTrue(table.isFull());
+        assertEquals(maxCount - FIRST_INDEX + 1, table.length(maxCount - 1));
+        assertThrows(IllegalStateException.class, () -> table.expand('q', 0));
+        table.reset();
+        assertFalse(table.contains(FIRST_INDEX));
+        assertTrue(table.contains(255));
+        assertFalse(table.contains(256));
+    }
+}